@@ -0,0 +1,56 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.TestResult;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a file where every test failed, so the time is dominated by findAge walking the history.
+ * NOT_RUN makes every walk visit every build, which is the worst case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgeBenchmark {
+	@Param({"500"})
+	public int testCount;
+
+	@Param({"1", "25", "100"})
+	public int historyDepth;
+
+	@Param({"FAILING", "NOT_RUN", "PASSING"})
+	public SyntheticHistory.Shape historyShape;
+
+	private File file;
+	private FilePath filePath;
+	private AbstractBuild build;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ResultFileGenerator generator = new ResultFileGenerator(testCount, 1.0, 0, 5, 8, 7);
+		file = generator.writeToTempFile();
+		filePath = new FilePath(file);
+		build = new SyntheticHistory(generator, historyDepth, historyShape).getCurrentBuild();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if(!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	@Benchmark
+	public Collection<TestResult> parseAllFailures() throws IOException {
+		return TestResult.parse(null, filePath, build, SyntheticHistory.UNIQUIFIER, "testReport");
+	}
+}
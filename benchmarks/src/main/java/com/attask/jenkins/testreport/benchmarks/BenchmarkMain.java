@@ -0,0 +1,27 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result has an allocation rate (gc.alloc.rate.norm is bytes per operation)
+ * 	next to its throughput, and writes the results as JSON so two versions can be compared.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : "com\\.attask\\.jenkins\\.testreport\\.benchmarks\\..*Benchmark";
+		String resultFile = args.length > 1 ? args[1] : "target/jmh-result.json";
+
+		Options options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,53 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestResultAction;
+import com.attask.jenkins.testreport.examplepublisher.HistoryPublisher;
+import hudson.model.AbstractBuild;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HistoryPublisher.populateHistory, through the same entry points the failure table (each) and the test page (includeFloat) use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryBenchmark {
+	@Param({"5000"})
+	public int testCount;
+
+	@Param({"5", "25", "100"})
+	public int historyDepth;
+
+	private HistoryPublisher publisher;
+	private AbstractBuild build;
+	private TestResult testResult;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ResultFileGenerator generator = new ResultFileGenerator(testCount, 0.05, 0, 10, 8, 3);
+		SyntheticHistory history = new SyntheticHistory(generator, historyDepth, SyntheticHistory.Shape.FAILING);
+		build = history.getLastRecordedBuild();
+		TestResultAction action = build.getAction(TestResultAction.class);
+		testResult = action.getTestResults().get(ResultFileGenerator.testName(testCount / 2));
+		publisher = new HistoryPublisher();
+	}
+
+	@Benchmark
+	public Object failureTableCell() throws IOException, InterruptedException {
+		publisher.each(build, testResult);
+		return publisher.history;
+	}
+
+	@Benchmark
+	public Object testPageFloat() {
+		publisher.includeFloat(build, testResult);
+		return publisher.history;
+	}
+}
@@ -0,0 +1,84 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.format.ResultFileConverter;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TestResult.parse end to end: reading the file, tokenizing, the age walk for failures, and de-duplicating.
+ * The v3 variant parses the same results converted to the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+	@Param({"1000", "20000"})
+	public int testCount;
+
+	@Param({"0.01", "0.2"})
+	public double failureRatio;
+
+	@Param({"10", "60"})
+	public int stackTraceLines;
+
+	@Param({"0", "25"})
+	public int historyDepth;
+
+	@Param({"v2", "v3"})
+	public String format;
+
+	private File file;
+	private FilePath filePath;
+	private AbstractBuild build;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ResultFileGenerator generator = new ResultFileGenerator(testCount, failureRatio, 0.02, stackTraceLines, 8, 42);
+		file = generator.writeToTempFile();
+		if(format.equals("v3")) {
+			file = convertToV3(file);
+		}
+		filePath = new FilePath(file);
+		build = new SyntheticHistory(generator, historyDepth, SyntheticHistory.Shape.FAILING).getCurrentBuild();
+	}
+
+	private static File convertToV3(File v2) throws IOException {
+		File v3 = File.createTempFile("benchmark", ".results3");
+		InputStream in = new FileInputStream(v2);
+		try {
+			OutputStream out = new FileOutputStream(v3);
+			try {
+				ResultFileConverter.convert(in, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		if(!v2.delete()) {
+			v2.deleteOnExit();
+		}
+		return v3;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if(!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	@Benchmark
+	public Collection<TestResult> parse() throws IOException {
+		return TestResult.parse(null, filePath, build, SyntheticHistory.UNIQUIFIER, "testReport");
+	}
+}
@@ -0,0 +1,96 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic "AtTask Failures v2" files.
+ * Every test is ADDED up front, then STARTED, then FINISHED, FAILED (followed by a stack trace) or SKIPPED,
+ * 	which is the order our runners write them in.
+ */
+public class ResultFileGenerator {
+	private final int testCount;
+	private final double failureRatio;
+	private final double skipRatio;
+	private final int stackTraceLines;
+	private final int threads;
+	private final long seed;
+
+	public ResultFileGenerator(int testCount, double failureRatio, double skipRatio, int stackTraceLines, int threads, long seed) {
+		this.testCount = testCount;
+		this.failureRatio = failureRatio;
+		this.skipRatio = skipRatio;
+		this.stackTraceLines = stackTraceLines;
+		this.threads = threads;
+		this.seed = seed;
+	}
+
+	public static String testName(int index) {
+		return "com.attask.synthetic.package" + (index % 50) + ".SyntheticTest" + (index / 20) + "#testMethod" + index;
+	}
+
+	public List<String> testNames() {
+		List<String> names = new ArrayList<String>(testCount);
+		for (int i = 0; i < testCount; i++) {
+			names.add(testName(i));
+		}
+		return names;
+	}
+
+	/**
+	 * Deterministic for a given seed, so the history and the file being parsed agree on which tests fail.
+	 */
+	public boolean isFailing(int index) {
+		return new Random(seed * 31 + index).nextDouble() < failureRatio;
+	}
+
+	public boolean isSkipped(int index) {
+		return !isFailing(index) && new Random(seed * 17 + index).nextDouble() < skipRatio;
+	}
+
+	public String stackTrace(int index) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("java.lang.AssertionError: expected:<").append(index).append("> but was:<").append(index + 1).append(">\n");
+		for (int line = 0; line < stackTraceLines; line++) {
+			sb.append("\tat com.attask.synthetic.package").append(line % 7).append(".Frame").append(line)
+					.append(".method").append(line).append("(Frame").append(line).append(".java:").append(100 + line).append(")\n");
+		}
+		return sb.toString();
+	}
+
+	public File writeTo(File file) throws IOException {
+		Random random = new Random(seed);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			writer.write("AtTask Failures v2\n");
+			for (int i = 0; i < testCount; i++) {
+				writer.write("added " + testName(i) + "\n");
+			}
+			for (int i = 0; i < testCount; i++) {
+				String name = testName(i);
+				String thread = "thread-" + (i % threads);
+				long time = 50 + random.nextInt(5000);
+				writer.write("started " + name + "\n");
+				if(isFailing(i)) {
+					writer.write("failed " + name + " " + thread + " " + time + "\n");
+					writer.write(stackTrace(i));
+				} else if(isSkipped(i)) {
+					writer.write("skipped " + name + " " + thread + " 0\n");
+				} else {
+					writer.write("finished " + name + " " + thread + " " + time + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	public File writeToTempFile() throws IOException {
+		File file = File.createTempFile("synthetic", ".results");
+		file.deleteOnExit();
+		return writeTo(file);
+	}
+}
@@ -0,0 +1,57 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.HighlightStyle;
+import com.attask.jenkins.testreport.TestRecorder;
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestStatus;
+import com.attask.jenkins.testreport.storage.ResultRetention;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-failure stack trace work: htmlifyStackTrace for the report and TestRecorder.setIsCritical while recording.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackTraceBenchmark {
+	@Param({"10", "60", "300"})
+	public int stackTraceLines;
+
+	@Param({"1", "5", "20"})
+	public int highlightStyles;
+
+	private TestResult testResult;
+	private TestRecorder recorder;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ResultFileGenerator generator = new ResultFileGenerator(1, 1.0, 0, stackTraceLines, 1, 11);
+		testResult = new TestResult(ResultFileGenerator.testName(0), 1000, "thread-0", TestStatus.FAILED, "synthetic#1", generator.stackTrace(0), 1, "synthetic#1", "testReport", SyntheticHistory.UNIQUIFIER);
+
+		List<HighlightStyle> styles = new ArrayList<HighlightStyle>(highlightStyles);
+		for (int i = 0; i < highlightStyles; i++) {
+			// Only the last one matches, so every style is evaluated.
+			String regex = i == highlightStyles - 1 ? "AssertionError" : "NoSuchElementException" + i;
+			styles.add(new HighlightStyle(regex, "#FF0000"));
+		}
+		recorder = new TestRecorder(styles, "**/*.results", SyntheticHistory.UNIQUIFIER, null, false, false, ResultRetention.ALL);
+	}
+
+	@Benchmark
+	public String htmlifyStackTrace() {
+		return testResult.htmlifyStackTrace();
+	}
+
+	@Benchmark
+	public String setIsCritical() {
+		recorder.setIsCritical(testResult);
+		return testResult.getStyle();
+	}
+}
@@ -0,0 +1,105 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.TestDataPublisher;
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestResultAction;
+import com.attask.jenkins.testreport.TestStatus;
+import hudson.model.AbstractBuild;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Stands in for a job's build history with mocked builds, each carrying a TestResultAction.
+ */
+public class SyntheticHistory {
+	public static final String JOB_NAME = "synthetic";
+	public static final String UNIQUIFIER = "synthetic-branch";
+
+	public enum Shape {
+		/**
+		 * Failing tests also failed in the previous build, so the age walk stops after one build.
+		 */
+		FAILING,
+
+		/**
+		 * Failing tests never finished in earlier builds, so the age walk has to visit every build.
+		 */
+		NOT_RUN,
+
+		/**
+		 * Every test passed in earlier builds.
+		 */
+		PASSING
+	}
+
+	private final List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+
+	/**
+	 * @param depth The number of builds before the current one.
+	 */
+	public SyntheticHistory(ResultFileGenerator generator, int depth, Shape shape) {
+		List<String> names = generator.testNames();
+		AbstractBuild previous = null;
+		for (int number = 1; number <= depth + 1; number++) {
+			AbstractBuild build = mockBuild(number);
+			doReturn(previous).when(build).getPreviousBuild();
+			if(previous != null) {
+				doReturn(build).when(previous).getNextBuild();
+			}
+
+			if(number <= depth) {
+				List<TestResult> results = new ArrayList<TestResult>(names.size());
+				for (int i = 0; i < names.size(); i++) {
+					results.add(historicalResult(generator, i, names.get(i), number, shape));
+				}
+				TestResultAction action = new TestResultAction(build, results, UNIQUIFIER, "testReport", Collections.<TestDataPublisher>emptyList());
+				doReturn(action).when(build).getAction(TestResultAction.class);
+			}
+			builds.add(build);
+			previous = build;
+		}
+		doReturn(null).when(previous).getNextBuild();
+	}
+
+	/**
+	 * @return The build being recorded. It has no TestResultAction of its own.
+	 */
+	public AbstractBuild getCurrentBuild() {
+		return builds.get(builds.size() - 1);
+	}
+
+	/**
+	 * @return The newest build that has a TestResultAction, or null if the depth was 0.
+	 */
+	public AbstractBuild getLastRecordedBuild() {
+		return builds.size() > 1 ? builds.get(builds.size() - 2) : null;
+	}
+
+	private static AbstractBuild mockBuild(int number) {
+		AbstractBuild build = mock(AbstractBuild.class);
+		doReturn(number).when(build).getNumber();
+		doReturn(JOB_NAME + "#" + number).when(build).getExternalizableId();
+		doReturn("job/" + JOB_NAME + "/" + number + "/").when(build).getUrl();
+		return build;
+	}
+
+	private static TestResult historicalResult(ResultFileGenerator generator, int index, String name, int buildNumber, Shape shape) {
+		String runId = JOB_NAME + "#" + buildNumber;
+		if(generator.isFailing(index)) {
+			switch (shape) {
+				case FAILING:
+					return new TestResult(name, 1000, "thread-0", TestStatus.FAILED, runId, generator.stackTrace(index), buildNumber, JOB_NAME + "#1", "testReport", UNIQUIFIER);
+				case NOT_RUN:
+					return new TestResult(name, -1, null, TestStatus.STARTED, runId, null, 0, null, "testReport", UNIQUIFIER);
+				default:
+					break;
+			}
+		}
+		return new TestResult(name, 1000, "thread-0", TestStatus.FINISHED, runId, null, 0, null, "testReport", UNIQUIFIER);
+	}
+}
@@ -0,0 +1,102 @@
+package com.attask.jenkins.testreport.benchmarks;
+
+import com.attask.jenkins.testreport.ResultLineTokenizer;
+import com.attask.jenkins.testreport.TestStatus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenizing every line of a results file, with ResultLineTokenizer and with the split/substring/valueOf code it replaced.
+ * Run it through BenchmarkMain: gc.alloc.rate.norm is the garbage for one pass over the file's lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+	@Param({"0.01", "0.2"})
+	public double failureRatio;
+
+	@Param({"10", "60"})
+	public int stackTraceLines;
+
+	private List<String> lines;
+	private ResultLineTokenizer tokenizer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File file = new ResultFileGenerator(5000, failureRatio, 0.02, stackTraceLines, 8, 42).writeToTempFile();
+		try {
+			lines = Arrays.asList(new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset()).split("\r?\n"));
+		} finally {
+			if(!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		tokenizer = new ResultLineTokenizer();
+	}
+
+	@Benchmark
+	public void tokenizer(Blackhole blackhole) {
+		for (int i = 1; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if(ResultLineTokenizer.testLineStatus(line) == null || !tokenizer.tokenize(line)) {
+				continue;
+			}
+			TestStatus status = tokenizer.getStatus();
+			blackhole.consume(status);
+			if(status == TestStatus.ADDED || status == TestStatus.STARTED) {
+				blackhole.consume(tokenizer.getTrimmedRest());
+			} else {
+				blackhole.consume(tokenizer.getName());
+				blackhole.consume(tokenizer.getThreadId());
+				blackhole.consume(tokenizer.getRunTime());
+			}
+		}
+	}
+
+	/**
+	 * The tokenizing TestResult.parse did before ResultLineTokenizer, kept here as the baseline.
+	 */
+	@Benchmark
+	public void legacy(Blackhole blackhole) {
+		for (int i = 1; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if(!legacyCheckIsTestLine(line)) {
+				continue;
+			}
+			int firstWhitespaceIndex = line.indexOf(" ");
+			String statusString = line.substring(0, firstWhitespaceIndex);
+			String token = line.substring(firstWhitespaceIndex + 1);
+			TestStatus status = TestStatus.valueOf(statusString.toUpperCase());
+			blackhole.consume(status);
+			if(status == TestStatus.ADDED || status == TestStatus.STARTED) {
+				blackhole.consume(token.trim());
+			} else {
+				String[] split = token.split("\\s");
+				blackhole.consume(split[0]);
+				blackhole.consume(split[1]);
+				blackhole.consume(Long.parseLong(split[2]));
+			}
+		}
+	}
+
+	private static boolean legacyCheckIsTestLine(String line) {
+		for (TestStatus testStatus : TestStatus.values()) {
+			if(line.startsWith(testStatus.toString().toLowerCase() + " ")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
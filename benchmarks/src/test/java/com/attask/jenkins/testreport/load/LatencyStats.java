@@ -0,0 +1,61 @@
+package com.attask.jenkins.testreport.load;
+
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects request latencies and summarizes them as percentiles in milliseconds.
+ */
+public class LatencyStats {
+	private final List<Long> nanos = new ArrayList<Long>();
+	private int errors;
+
+	public synchronized void add(long elapsedNanos) {
+		nanos.add(elapsedNanos);
+	}
+
+	/**
+	 * @return Whether this is the first error, so the caller can log it without logging every error after it.
+	 */
+	public synchronized boolean addError() {
+		errors++;
+		return errors == 1;
+	}
+
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	public synchronized JSONObject toJson() {
+		List<Long> sorted = new ArrayList<Long>(nanos);
+		Collections.sort(sorted);
+
+		JSONObject json = new JSONObject();
+		json.put("count", sorted.size());
+		json.put("errors", errors);
+		if(!sorted.isEmpty()) {
+			long total = 0;
+			for (Long value : sorted) {
+				total += value;
+			}
+			json.put("meanMs", toMillis(total / sorted.size()));
+			json.put("p50Ms", toMillis(percentile(sorted, 0.50)));
+			json.put("p90Ms", toMillis(percentile(sorted, 0.90)));
+			json.put("p99Ms", toMillis(percentile(sorted, 0.99)));
+			json.put("maxMs", toMillis(sorted.get(sorted.size() - 1)));
+		}
+		return json;
+	}
+
+	private static long percentile(List<Long> sorted, double percentile) {
+		int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+}
@@ -0,0 +1,240 @@
+package com.attask.jenkins.testreport.load;
+
+import com.attask.jenkins.testreport.HighlightStyle;
+import com.attask.jenkins.testreport.TestDataPublisher;
+import com.attask.jenkins.testreport.TestRecorder;
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestResultAction;
+import com.attask.jenkins.testreport.benchmarks.ResultFileGenerator;
+import com.attask.jenkins.testreport.examplepublisher.HistoryPublisher;
+import com.attask.jenkins.testreport.storage.ResultRetention;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.*;
+import hudson.util.DescribableList;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Records a job with thousands of builds, each with a large TestResultAction, then times the report pages
+ * 	the way users hit them: the first load after a restart (every build has to be loaded from disk) and warm loads under concurrent requests.
+ *
+ * Sizes come from system properties (load.builds, load.tests, load.failureRatio, load.concurrency, load.requests)
+ * 	and the results are written to load.report as JSON so two versions can be compared.
+ */
+public class ReportLoadTest {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String JOB_NAME = "load";
+	private static final String RESULTS_FILE = "results.txt";
+	private static final String URL_NAME = "testReport";
+
+	private final int buildCount = Integer.getInteger("load.builds", 1000);
+	private final int testCount = Integer.getInteger("load.tests", 5000);
+	private final double failureRatio = Double.parseDouble(System.getProperty("load.failureRatio", "0.02"));
+	private final int concurrency = Integer.getInteger("load.concurrency", 8);
+	private final int requestsPerPage = Integer.getInteger("load.requests", 200);
+	private final File reportFile = new File(System.getProperty("load.report", "target/load-report.json"));
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Test
+	public void recordAndRender() throws Exception {
+		JSONObject report = new JSONObject();
+		report.put("builds", buildCount);
+		report.put("tests", testCount);
+		report.put("failureRatio", failureRatio);
+		report.put("concurrency", concurrency);
+
+		FreeStyleProject project = createProject();
+		report.put("recording", record(project));
+
+		// Throw away every loaded build so the first requests pay for loading them, like after a restart.
+		j.jenkins.reload();
+		project = j.jenkins.getItemByFullName(JOB_NAME, FreeStyleProject.class);
+		assertNotNull(project);
+
+		List<Page> pages = createPages(project);
+		List<String> failures = new ArrayList<String>();
+		JSONObject firstLoad = new JSONObject();
+		for (Page page : pages) {
+			LatencyStats stats = new LatencyStats();
+			request(j.createWebClient(), page.path, page.contentType, stats);
+			firstLoad.put(page.name, stats.toJson());
+			addFailure(failures, "first load of " + page.name, stats);
+		}
+		report.put("firstLoad", firstLoad);
+
+		JSONObject warmLoad = new JSONObject();
+		for (Page page : pages) {
+			LatencyStats stats = hammer(page);
+			warmLoad.put(page.name, stats.toJson());
+			addFailure(failures, "warm load of " + page.name, stats);
+		}
+		report.put("warmLoad", warmLoad);
+
+		write(report);
+
+		// A page that fails is fast, so its timings mean nothing.
+		if(!failures.isEmpty()) {
+			fail("Requests failed: " + failures + ". The first failure of each page is logged above.");
+		}
+	}
+
+	private static void addFailure(List<String> failures, String name, LatencyStats stats) {
+		if(stats.getErrors() > 0) {
+			failures.add(name + " (" + stats.getErrors() + " errors)");
+		}
+	}
+
+	private FreeStyleProject createProject() throws IOException {
+		FreeStyleProject project = j.createFreeStyleProject(JOB_NAME);
+		project.setQuietPeriod(0);
+		project.getBuildersList().add(new TestBuilder() {
+			@Override
+			public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+				// A handful of seeds repeat, so the same tests keep failing and findAge has history to walk.
+				ResultFileGenerator generator = new ResultFileGenerator(testCount, failureRatio, 0.01, 40, 8, build.getNumber() % 7);
+				File file = File.createTempFile("load", ".results");
+				try {
+					generator.writeTo(file);
+					build.getWorkspace().child(RESULTS_FILE).copyFrom(new FilePath(file));
+				} finally {
+					if(!file.delete()) {
+						file.deleteOnExit();
+					}
+				}
+				return true;
+			}
+		});
+
+		List<HighlightStyle> styles = Arrays.asList(new HighlightStyle("AssertionError", "#FF0000"), new HighlightStyle("TimeoutException", "#FFA500"));
+		DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>> publishers = new DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>>(Saveable.NOOP, Collections.<TestDataPublisher>singletonList(new HistoryPublisher()));
+		project.getPublishersList().add(new TestRecorder(styles, RESULTS_FILE, JOB_NAME, publishers, false, false, ResultRetention.ALL));
+		return project;
+	}
+
+	private JSONObject record(FreeStyleProject project) throws Exception {
+		LatencyStats buildStats = new LatencyStats();
+		long start = System.nanoTime();
+		for (int i = 0; i < buildCount; i++) {
+			long buildStart = System.nanoTime();
+			FreeStyleBuild build = j.buildAndAssertSuccess(project);
+			buildStats.add(System.nanoTime() - buildStart);
+			assertNotNull(build.getAction(TestResultAction.class));
+		}
+		JSONObject recording = buildStats.toJson();
+		recording.put("totalMs", (System.nanoTime() - start) / 1000000.0);
+		return recording;
+	}
+
+	private List<Page> createPages(FreeStyleProject project) {
+		Run lastBuild = project.getLastBuild();
+		String buildUrl = "job/" + JOB_NAME + "/" + lastBuild.getNumber() + "/" + URL_NAME + "/";
+		String failingTest = null;
+		for (TestResult failure : lastBuild.getAction(TestResultAction.class).getFailures()) {
+			if(failure.getStackTrace() != null) {
+				failingTest = failure.getName();
+				break;
+			}
+		}
+
+		List<Page> pages = new ArrayList<Page>();
+		pages.add(new Page("index", buildUrl, null));
+		pages.add(new Page("allTests", buildUrl + "allTests", null));
+		pages.add(new Page("allTestsRows", buildUrl + "allTestsRows?start=0&count=500", null));
+		if(failingTest != null) {
+			pages.add(new Page("getStackTrace", buildUrl + "getStackTrace?name=" + Util.rawEncode(failingTest), null));
+		}
+		pages.add(new Page("api", buildUrl + "api/json?depth=1", "application/json"));
+		pages.add(new Page("query", buildUrl + "query?status=FAILED&sort=age&fields=name,age", "application/json"));
+		pages.add(new Page("trendGraph", "job/" + JOB_NAME + "/" + lastBuild.getNumber() + "/" + URL_NAME + "/graph", "image/png"));
+		return pages;
+	}
+
+	/**
+	 * Requests the page from a pool of threads, each with its own web client since they aren't thread safe.
+	 */
+	private LatencyStats hammer(final Page page) throws InterruptedException {
+		final LatencyStats stats = new LatencyStats();
+		final AtomicInteger remaining = new AtomicInteger(requestsPerPage);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			for (int i = 0; i < concurrency; i++) {
+				executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						JenkinsRule.WebClient webClient = j.createWebClient();
+						while(remaining.getAndDecrement() > 0) {
+							request(webClient, page.path, page.contentType, stats);
+						}
+						return null;
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return stats;
+	}
+
+	private static void request(JenkinsRule.WebClient webClient, String path, String contentType, LatencyStats stats) {
+		long start = System.nanoTime();
+		try {
+			if(contentType == null) {
+				webClient.goTo(path);
+			} else {
+				webClient.goTo(path, contentType);
+			}
+			stats.add(System.nanoTime() - start);
+		} catch (Exception e) {
+			if(stats.addError()) {
+				log.log(Level.WARNING, "Requesting " + path + " failed", e);
+			}
+		}
+	}
+
+	private void write(JSONObject report) throws IOException {
+		File parent = reportFile.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Couldn't create " + parent);
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+		try {
+			writer.write(report.toString(2));
+		} finally {
+			writer.close();
+		}
+		System.out.println("Wrote " + reportFile.getAbsolutePath());
+	}
+
+	private static class Page {
+		private final String name;
+		private final String path;
+		private final String contentType;
+
+		private Page(String name, String path, String contentType) {
+			this.name = name;
+			this.path = path;
+			this.contentType = contentType;
+		}
+	}
+}
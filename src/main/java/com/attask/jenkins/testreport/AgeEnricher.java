@@ -0,0 +1,76 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import hudson.model.Run;
+import hudson.security.ACL;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the ages of a build's failures in the background, for recorders that don't want the build to wait for the age walk.
+ * A single thread does the work, so a burst of builds can't flood the controller with history walks.
+ */
+public class AgeEnricher {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TestReportTool age enrichment");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Build ids that are queued or running, so a build loaded twice isn't enriched twice.
+	 */
+	private static final Set<String> scheduled = Collections.synchronizedSet(new HashSet<String>());
+
+	public static void schedule(final TestResultAction action) {
+		final String buildId = action.getBuildId();
+		if(!scheduled.add(buildId)) {
+			return;
+		}
+		executor.submit(new Runnable() {
+			public void run() {
+				// Looking builds up by id is permission checked, and this thread has no user. Without this, a secured instance finds no builds
+				// 	and the ages stay pending forever.
+				SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+				try {
+					enrich(action);
+				} catch (Exception e) {
+					log.log(Level.WARNING, "Couldn't compute the test ages of " + buildId, e);
+				} finally {
+					SecurityContextHolder.setContext(previous);
+					scheduled.remove(buildId);
+				}
+			}
+		});
+	}
+
+	private static void enrich(TestResultAction action) throws IOException {
+		if(!action.isEnrichmentPending()) {
+			return;
+		}
+		Run build = action.findBuild();
+		if(build == null) {
+			log.warning("No run for id: " + action.getBuildId());
+			return;
+		}
+
+		RecordingStats stats = new RecordingStats();
+		action.completeEnrichment(TestResult.findAges(action.getTestResults().values(), build, action.getUniquifier(), stats));
+		build.save();
+		stats.publish("enrichment");
+	}
+}
@@ -0,0 +1,277 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.FilePath;
+import hudson.model.Run;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parses one huge results file on several threads.
+ * Some suites write every test into a single file of a gigabyte or more, where parsing file by file doesn't help.
+ *
+ * The file is cut into byte ranges, and each cut is moved forward to the start of the next test line (the same check the
+ * 	sequential parser uses to end a stack trace), so a failure and its whole stack trace always land in the same range.
+ * The ranges are parsed in parallel and merged in file order with the same "most interesting status wins" rule,
+ * 	which gives exactly the results, and the order, of a sequential parse.
+ */
+class ChunkedResultParser {
+	private static final int MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	static Collection<TestResult> parse(final TestRecorder testRecorder, final FilePath file, final Run build, final String uniqueId, final String url, RecordingStats stats, boolean findAges) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+
+		File localFile;
+		boolean temporary = file.isRemote();
+		if(temporary) {
+			localFile = File.createTempFile("testReport", ".results");
+			OutputStream out = new FileOutputStream(localFile);
+			try {
+				file.copyTo(out);
+			} finally {
+				out.close();
+			}
+		} else {
+			localFile = new File(file.getRemote());
+		}
+		long transferTime = System.nanoTime() - start;
+		stats.addTime(RecordingStats.Phase.TRANSFER, transferTime);
+		stats.add(RecordingStats.Counter.FILES, 1);
+		stats.add(RecordingStats.Counter.BYTES, localFile.length());
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TestReportTool chunked parse of " + file.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			long[] bounds = findChunkBounds(localFile, threads * CHUNKS_PER_THREAD);
+			Collection<TestResult> results = parseChunks(testRecorder, file, localFile, bounds, executor, RunUtils.getRealExternalizableId(build), uniqueId, url, stats);
+			stats.add(RecordingStats.Counter.RESULTS, results.size());
+			stats.addTime(RecordingStats.Phase.PARSE, System.nanoTime() - start - transferTime);
+
+			// Ages are found once per failing test after the merge, rather than once per failed line.
+			if(findAges) {
+				return TestResult.findAges(results, build, uniqueId, stats);
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+			if(temporary && !localFile.delete()) {
+				TestResult.log.warning("Couldn't delete " + localFile);
+			}
+		}
+	}
+
+	/**
+	 * Parses the chunks between the bounds in parallel, without ages.
+	 * @param file The file as the user knows it, for errors.
+	 * @param localFile The same file on this machine.
+	 * @return The results in the order of a sequential parse.
+	 */
+	static Collection<TestResult> parseChunks(final TestRecorder testRecorder, final FilePath file, final File localFile, long[] bounds, ExecutorService executor,
+			final String runId, final String uniqueId, final String url, RecordingStats stats) throws IOException, InterruptedException {
+		final Charset charset = Charset.defaultCharset();
+
+		// Splitting into lines first tells every chunk which line it starts on, so errors point at the right line.
+		List<Callable<List<String>>> splits = new ArrayList<Callable<List<String>>>();
+		for (int i = 0; i + 1 < bounds.length; i++) {
+			final long from = bounds[i];
+			final long to = bounds[i + 1];
+			final boolean last = i + 2 == bounds.length;
+			splits.add(new Callable<List<String>>() {
+				public List<String> call() throws IOException {
+					return readLines(localFile, from, to, charset, last);
+				}
+			});
+		}
+		List<List<String>> chunks = join(executor.invokeAll(splits));
+
+		List<Callable<Map<TestResult, TestStatus>>> parses = new ArrayList<Callable<Map<TestResult, TestStatus>>>();
+		int firstLine = 0;
+		for (final List<String> lines : chunks) {
+			final int chunkFirstLine = firstLine;
+			parses.add(new Callable<Map<TestResult, TestStatus>>() {
+				public Map<TestResult, TestStatus> call() {
+					Map<TestResult, TestStatus> results = new LinkedHashMap<TestResult, TestStatus>();
+					// Highlighting is timed by the whole chunked parse, since the chunks overlap in time.
+					TestResult.parseLines(testRecorder, file, lines, chunkFirstLine, null, runId, uniqueId, url, new RecordingStats(), false, results);
+					return results;
+				}
+			});
+			firstLine += lines.size();
+		}
+		stats.add(RecordingStats.Counter.LINES, firstLine);
+
+		Map<TestResult, TestStatus> results = new LinkedHashMap<TestResult, TestStatus>();
+		for (Map<TestResult, TestStatus> chunkResults : join(executor.invokeAll(parses))) {
+			for (TestResult result : chunkResults.keySet()) {
+				TestResult.keepMoreInteresting(results, result);
+			}
+		}
+		return results.keySet();
+	}
+
+	/**
+	 * @return The offsets the chunks start at, followed by the length of the file. Every offset but the first is the start of a test line.
+	 */
+	static long[] findChunkBounds(File file, int chunkCount) throws IOException {
+		return findChunkBoundsBySize(file, Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, file.length() / chunkCount)));
+	}
+
+	/**
+	 * @param chunkSize How far apart the cuts are before they are moved to the next test line.
+	 */
+	static long[] findChunkBoundsBySize(File file, long chunkSize) throws IOException {
+		long length = file.length();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			long position = chunkSize;
+			while(position < length) {
+				long bound = nextTestLine(in, position, length);
+				if(bound >= length) {
+					break;
+				}
+				bounds.add(bound);
+				position = Math.max(bound + 1, position + chunkSize);
+			}
+		} finally {
+			in.close();
+		}
+		bounds.add(length);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The offset of the first test line that starts after position, or the length of the file if there isn't one.
+	 */
+	private static long nextTestLine(RandomAccessFile in, long position, long length) throws IOException {
+		in.seek(position - 1);
+		InputStream stream = new BufferedInputStream(new RandomAccessFileStream(in));
+		long lineStart = position;
+		// Skip the rest of the line position falls in, unless it's already at the start of one.
+		if(stream.read() != '\n') {
+			lineStart = skipLine(stream, position);
+		}
+		ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+		while(lineStart < length) {
+			prefix.reset();
+			long next = lineStart;
+			int b;
+			// Status tokens are short, so the start of the line is enough to recognize a test line.
+			while(prefix.size() < 16 && (b = stream.read()) >= 0) {
+				next++;
+				if(b == '\n') {
+					break;
+				}
+				prefix.write(b);
+			}
+			if(TestResult.checkIsTestLine(prefix.toString())) {
+				return lineStart;
+			}
+			if(prefix.size() == 16) {
+				next = skipLine(stream, next);
+			}
+			lineStart = next;
+		}
+		return length;
+	}
+
+	/**
+	 * @return The offset just past the end of the current line.
+	 */
+	private static long skipLine(InputStream stream, long position) throws IOException {
+		int b;
+		while((b = stream.read()) >= 0) {
+			position++;
+			if(b == '\n') {
+				break;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Reads a RandomAccessFile from wherever it's positioned, and leaves it open.
+	 * A FileInputStream on the file's descriptor would do the same until it was finalized, which closes the descriptor under the RandomAccessFile.
+	 */
+	private static class RandomAccessFileStream extends InputStream {
+		private final RandomAccessFile in;
+
+		private RandomAccessFileStream(RandomAccessFile in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			return in.read(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Splits the bytes between from and to into lines the way the sequential parser splits the whole file.
+	 * Only the end of the file drops trailing blank lines; elsewhere they belong to a stack trace.
+	 */
+	private static List<String> readLines(File file, long from, long to, Charset charset, boolean last) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, from + buffer.position()) < 0) {
+					throw new EOFException(file + " is shorter than when it was split");
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		String content = new String(buffer.array(), charset);
+		if(last) {
+			return Arrays.asList(content.split("\r?\n"));
+		}
+		String[] lines = content.split("\r?\n", -1);
+		// The chunk ends with the newline before the next test line, which leaves one empty string.
+		return Arrays.asList(lines).subList(0, lines.length - 1);
+	}
+
+	private static <T> List<T> join(List<Future<T>> futures) throws IOException, InterruptedException {
+		List<T> results = new ArrayList<T>(futures.size());
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if(cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new IOException(cause);
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,86 @@
+package com.attask.jenkins.testreport;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A test that took much longer than its baseline in one build.
+ */
+@ExportedBean
+public class DurationRegression {
+	public enum Kind {
+		/**
+		 * Far above the recent moving average, i.e. it got slow in this build.
+		 */
+		JUMP,
+
+		/**
+		 * Within the recent range, but far above the long-term mean, i.e. it has been getting slower over many builds.
+		 */
+		DRIFT
+	}
+
+	private final String name;
+	private final Kind kind;
+	private final long time;
+	private final long baseline;
+	private final long stdDev;
+	private final long p95;
+
+	public DurationRegression(String name, Kind kind, long time, long baseline, long stdDev, long p95) {
+		this.name = name;
+		this.kind = kind;
+		this.time = time;
+		this.baseline = baseline;
+		this.stdDev = stdDev;
+		this.p95 = p95;
+	}
+
+	@Exported
+	public String getName() {
+		return name;
+	}
+
+	@Exported
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The time the test took in this build, in milliseconds.
+	 */
+	@Exported
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return The mean it was compared against, in milliseconds.
+	 */
+	@Exported
+	public long getBaseline() {
+		return baseline;
+	}
+
+	@Exported
+	public long getStdDev() {
+		return stdDev;
+	}
+
+	/**
+	 * @return The approximate 95th percentile before this build, in milliseconds.
+	 */
+	@Exported
+	public long getP95() {
+		return p95;
+	}
+
+	@Exported
+	public long getIncrease() {
+		return time - baseline;
+	}
+
+	public String getNameUrlEncoded() {
+		return name.replace("#", "%23");
+	}
+}
@@ -0,0 +1,234 @@
+package com.attask.jenkins.testreport;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streaming duration statistics for every test of a job, updated as each build records without rereading old builds.
+ *
+ * Each test keeps:
+ * 	the long-term mean and variance (Welford's algorithm),
+ * 	an exponentially weighted mean and variance that follow recent builds,
+ * 	approximate 50th and 95th percentiles, tracked by stochastic approximation.
+ *
+ * A test regressed when it is far above its recent mean (a jump) or when its recent mean has drifted far above its long-term mean.
+ */
+public class DurationStatistics {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String FILE_NAME = "testReportDurations.xml";
+
+	/**
+	 * Weight of the newest build in the exponentially weighted statistics.
+	 */
+	private static final double ALPHA = 0.1;
+
+	/**
+	 * How fast the percentile estimates move, as a fraction of the standard deviation.
+	 */
+	private static final double PERCENTILE_RATE = 0.3;
+
+	/**
+	 * No judgement is made until a test has been timed this many times.
+	 */
+	static final int MIN_SAMPLES = 5;
+
+	/**
+	 * A jump must be this many standard deviations above the recent mean...
+	 */
+	static final double JUMP_STD_DEVS = 3;
+
+	/**
+	 * ...and at least this many times the recent mean.
+	 */
+	static final double MIN_RATIO = 1.5;
+
+	/**
+	 * The recent mean has drifted when it is this many times the long-term mean.
+	 */
+	static final double DRIFT_RATIO = 2;
+
+	/**
+	 * Increases smaller than this are noise, however large the ratio is.
+	 */
+	static final long MIN_INCREASE = 1000;
+
+	/**
+	 * Only the largest regressions are kept on each build.
+	 */
+	static final int MAX_REGRESSIONS = 50;
+
+	private static final int FORGET_AFTER_BUILDS = 50;
+
+	private static final Map<Job, DurationStatistics> statistics = Collections.synchronizedMap(new WeakHashMap<Job, DurationStatistics>());
+
+	private final transient File file;
+	private final Map<String, TestDuration> tests;
+	private int lastBuildNumber;
+
+	private DurationStatistics(File file) {
+		this.file = file;
+		this.tests = new HashMap<String, TestDuration>();
+	}
+
+	public static DurationStatistics forJob(Job<?, ?> job) {
+		synchronized (statistics) {
+			DurationStatistics result = statistics.get(job);
+			if(result == null) {
+				result = new DurationStatistics(new File(job.getRootDir(), FILE_NAME));
+				XmlFile xmlFile = new XmlFile(result.file);
+				if(xmlFile.exists()) {
+					try {
+						xmlFile.unmarshal(result);
+					} catch (IOException e) {
+						log.log(Level.WARNING, "Couldn't read " + result.file + ". Starting over.", e);
+						result.tests.clear();
+						result.lastBuildNumber = 0;
+					}
+				}
+				statistics.put(job, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Compares each result against the statistics so far, then adds it to them.
+	 * @return The regressions in this build, largest increase first.
+	 */
+	public synchronized List<DurationRegression> record(int buildNumber, Collection<TestResult> results) {
+		if(buildNumber <= lastBuildNumber) {
+			return Collections.emptyList();
+		}
+
+		List<DurationRegression> regressions = new ArrayList<DurationRegression>();
+		for (TestResult result : results) {
+			if(result.getTime() < 0 || (result.getStatus() != TestStatus.FINISHED && result.getStatus() != TestStatus.FAILED)) {
+				continue;
+			}
+			TestDuration duration = tests.get(result.getName());
+			if(duration == null) {
+				duration = new TestDuration();
+				tests.put(result.getName(), duration);
+			}
+			DurationRegression regression = duration.check(result.getName(), result.getTime());
+			if(regression != null) {
+				regressions.add(regression);
+			}
+			duration.add(buildNumber, result.getTime());
+		}
+
+		for (Iterator<TestDuration> iterator = tests.values().iterator(); iterator.hasNext(); ) {
+			if(buildNumber - iterator.next().lastSeenBuild > FORGET_AFTER_BUILDS) {
+				iterator.remove();
+			}
+		}
+		lastBuildNumber = buildNumber;
+		save();
+
+		Collections.sort(regressions, new Comparator<DurationRegression>() {
+			public int compare(DurationRegression first, DurationRegression second) {
+				return first.getIncrease() > second.getIncrease() ? -1 : (first.getIncrease() == second.getIncrease() ? 0 : 1);
+			}
+		});
+		return regressions.size() > MAX_REGRESSIONS ? new ArrayList<DurationRegression>(regressions.subList(0, MAX_REGRESSIONS)) : regressions;
+	}
+
+	/**
+	 * @return The statistics of the test, or null if it has never been timed.
+	 */
+	public synchronized TestDuration find(String testName) {
+		return tests.get(testName);
+	}
+
+	private synchronized void save() {
+		try {
+			new XmlFile(file).write(this);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Couldn't save " + file, e);
+		}
+	}
+
+	public static class TestDuration {
+		private int count;
+		private double mean;
+		private double m2;
+		private double recentMean;
+		private double recentVariance;
+		private double p50;
+		private double p95;
+		private int lastSeenBuild;
+
+		private DurationRegression check(String name, long time) {
+			if(count < MIN_SAMPLES) {
+				return null;
+			}
+			double recentStdDev = Math.sqrt(recentVariance);
+			if(time - recentMean >= MIN_INCREASE && time > recentMean + JUMP_STD_DEVS * recentStdDev && time > recentMean * MIN_RATIO) {
+				return new DurationRegression(name, DurationRegression.Kind.JUMP, time, Math.round(recentMean), Math.round(recentStdDev), Math.round(p95));
+			}
+			if(time - mean >= MIN_INCREASE && recentMean > mean * DRIFT_RATIO && time > mean * DRIFT_RATIO) {
+				return new DurationRegression(name, DurationRegression.Kind.DRIFT, time, Math.round(mean), Math.round(getStdDev()), Math.round(p95));
+			}
+			return null;
+		}
+
+		private void add(int buildNumber, long time) {
+			count++;
+			double delta = time - mean;
+			mean += delta / count;
+			m2 += delta * (time - mean);
+
+			if(count == 1) {
+				recentMean = time;
+				recentVariance = 0;
+				p50 = time;
+				p95 = time;
+			} else {
+				double recentDelta = time - recentMean;
+				double increment = ALPHA * recentDelta;
+				recentMean += increment;
+				recentVariance = (1 - ALPHA) * (recentVariance + recentDelta * increment);
+
+				// Move each estimate up by q or down by (1 - q) steps, so it settles where a fraction q of the samples are below it.
+				double step = PERCENTILE_RATE * Math.max(1, Math.sqrt(recentVariance));
+				p50 += time > p50 ? step * 0.5 : -step * 0.5;
+				p95 += time > p95 ? step * 0.95 : -step * 0.05;
+			}
+			lastSeenBuild = buildNumber;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getStdDev() {
+			return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+		}
+
+		public double getRecentMean() {
+			return recentMean;
+		}
+
+		public double getRecentStdDev() {
+			return Math.sqrt(recentVariance);
+		}
+
+		public double getP50() {
+			return p50;
+		}
+
+		public double getP95() {
+			return p95;
+		}
+	}
+}
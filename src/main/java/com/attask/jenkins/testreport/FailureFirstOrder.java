@@ -0,0 +1,234 @@
+package com.attask.jenkins.testreport;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A job's tests ranked so the ones most likely to fail run first: currently failing tests, then tests that fail or flip often, fastest first.
+ *
+ * Each test keeps a few moving averages that are updated as every build records, so the order never has to be recomputed from old builds.
+ * The ranked text is rendered once per build and served as is, so fetching it at the start of a build is just a copy of a string.
+ */
+public class FailureFirstOrder {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String FILE_NAME = "testReportOrder.xml";
+
+	/**
+	 * Weight of the newest build in the moving averages.
+	 */
+	private static final float ALPHA = 0.2f;
+
+	/**
+	 * Tests that haven't been reported for this many builds are forgotten.
+	 */
+	private static final int FORGET_AFTER_BUILDS = 50;
+
+	/**
+	 * Builds read the first time a job is seen.
+	 */
+	private static final int SEED_BUILDS = 10;
+
+	private static final Map<Job, FailureFirstOrder> orders = Collections.synchronizedMap(new WeakHashMap<Job, FailureFirstOrder>());
+
+	private final transient File file;
+	private final Map<String, TestHistory> tests;
+	private int lastBuildNumber;
+	private long lastModified;
+
+	private transient String rendered;
+
+	private FailureFirstOrder(File file) {
+		this.file = file;
+		this.tests = new HashMap<String, TestHistory>();
+	}
+
+	public static FailureFirstOrder forJob(Job<?, ?> job) {
+		synchronized (orders) {
+			FailureFirstOrder order = orders.get(job);
+			if(order == null) {
+				order = load(job);
+				orders.put(job, order);
+			}
+			return order;
+		}
+	}
+
+	private static FailureFirstOrder load(Job<?, ?> job) {
+		File file = new File(job.getRootDir(), FILE_NAME);
+		FailureFirstOrder order = new FailureFirstOrder(file);
+		XmlFile xmlFile = new XmlFile(file);
+		if(xmlFile.exists()) {
+			try {
+				xmlFile.unmarshal(order);
+				return order;
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't read " + file + ". Rebuilding it from the latest builds.", e);
+				order.tests.clear();
+				order.lastBuildNumber = 0;
+			}
+		}
+
+		// First time we've seen this job. Seed it from the last few builds, oldest first.
+		List<TestResultTrend.Point> points = TestResultTrend.forJob(job).getPoints();
+		for (int i = Math.max(0, points.size() - SEED_BUILDS); i < points.size(); i++) {
+			Run run = job.getBuildByNumber(points.get(i).getBuildNumber());
+			TestResultAction action = run == null ? null : run.getAction(TestResultAction.class);
+			if(action != null) {
+				order.update(run.getNumber(), action.findAllResults(), !action.isEnrichmentPending());
+			}
+		}
+		order.save();
+		return order;
+	}
+
+	/**
+	 * @param agesKnown false if the results' ages are still being computed by AgeEnricher.
+	 * 	The order then counts a failure's age from its own history instead of trusting the ages, which would all be 0.
+	 */
+	public synchronized void record(int buildNumber, Collection<TestResult> results, boolean agesKnown) {
+		if(buildNumber <= lastBuildNumber) {
+			// Already counted, e.g. the recorder ran twice in one build.
+			return;
+		}
+		update(buildNumber, results, agesKnown);
+		save();
+	}
+
+	private void update(int buildNumber, Collection<TestResult> results, boolean agesKnown) {
+		for (TestResult result : results) {
+			TestStatus status = result.getStatus();
+			if(status == TestStatus.SKIPPED) {
+				continue;
+			}
+			TestHistory history = tests.get(result.getName());
+			if(history == null) {
+				history = new TestHistory();
+				tests.put(result.getName(), history);
+			}
+			history.update(buildNumber, result, agesKnown);
+		}
+
+		for (Iterator<TestHistory> iterator = tests.values().iterator(); iterator.hasNext(); ) {
+			if(buildNumber - iterator.next().lastSeenBuild > FORGET_AFTER_BUILDS) {
+				iterator.remove();
+			}
+		}
+
+		lastBuildNumber = buildNumber;
+		lastModified = System.currentTimeMillis();
+		rendered = null;
+	}
+
+	/**
+	 * @return One test name per line, most likely to fail first.
+	 */
+	public synchronized String render() {
+		if(rendered == null) {
+			List<Map.Entry<String, TestHistory>> entries = new ArrayList<Map.Entry<String, TestHistory>>(tests.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, TestHistory>>() {
+				public int compare(Map.Entry<String, TestHistory> first, Map.Entry<String, TestHistory> second) {
+					int compare = Float.compare(second.getValue().score(), first.getValue().score());
+					if(compare != 0) {
+						return compare;
+					}
+					compare = Float.compare(first.getValue().duration, second.getValue().duration);
+					return compare != 0 ? compare : first.getKey().compareTo(second.getKey());
+				}
+			});
+
+			StringBuilder sb = new StringBuilder(entries.size() * 64);
+			for (Map.Entry<String, TestHistory> entry : entries) {
+				sb.append(entry.getKey()).append('\n');
+			}
+			rendered = sb.toString();
+		}
+		return rendered;
+	}
+
+	public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+		long lastModified;
+		synchronized (this) {
+			lastModified = this.lastModified;
+		}
+		if(request.checkIfModified(lastModified, response)) {
+			return;
+		}
+		response.setContentType("text/plain;charset=UTF-8");
+		response.getWriter().print(render());
+	}
+
+	private synchronized void save() {
+		try {
+			new XmlFile(file).write(this);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Couldn't save " + file, e);
+		}
+	}
+
+	public static class TestHistory {
+		/**
+		 * The current age of the failure (from findAge), or 0 if the test last passed.
+		 */
+		private int age;
+
+		/**
+		 * Moving average of 1 for a failure and 0 for a pass.
+		 */
+		private float failureRate;
+
+		/**
+		 * Moving average of 1 when the status changed between passing and failing and 0 otherwise. High for flaky tests.
+		 */
+		private float flipRate;
+
+		/**
+		 * Moving average of the duration, in milliseconds.
+		 */
+		private float duration;
+
+		private boolean lastFailed;
+		private int lastSeenBuild;
+
+		private void update(int buildNumber, TestResult result, boolean agesKnown) {
+			boolean failed = result.getStatus() != TestStatus.FINISHED;
+			boolean first = lastSeenBuild == 0;
+
+			if(!failed) {
+				age = 0;
+			} else if(agesKnown) {
+				age = Math.max(1, result.getAge());
+			} else {
+				// Still failing since the last time this test was seen, or failing for the first time.
+				age = !first && lastFailed ? age + 1 : 1;
+			}
+			failureRate = first ? (failed ? 1 : 0) : ALPHA * (failed ? 1 : 0) + (1 - ALPHA) * failureRate;
+			flipRate = first ? 0 : ALPHA * (failed != lastFailed ? 1 : 0) + (1 - ALPHA) * flipRate;
+			if(result.getTime() >= 0) {
+				duration = first || duration <= 0 ? result.getTime() : ALPHA * result.getTime() + (1 - ALPHA) * duration;
+			}
+			lastFailed = failed;
+			lastSeenBuild = buildNumber;
+		}
+
+		/**
+		 * Currently failing tests come first, newest failures first, since an old failure is less likely to be what just broke.
+		 * Everything else is ordered by how often it fails or flips.
+		 */
+		private float score() {
+			float score = failureRate + flipRate;
+			if(age > 0) {
+				score += 2 + 1f / age;
+			}
+			return score;
+		}
+	}
+}
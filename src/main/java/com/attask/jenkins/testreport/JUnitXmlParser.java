@@ -0,0 +1,143 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.FilePath;
+import hudson.model.Run;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reads JUnit XML reports (testsuite/testcase elements, as written by Ant, Maven Surefire, Gradle and most other runners).
+ * Some suites write hundreds of megabytes of XML per file, so it is read with a streaming StAX parser:
+ * 	only the test case being read is held in memory, never the document.
+ * 	Text is only ever collected for failure and error elements. Everything else, system-out included, is skipped
+ * 	a parser buffer at a time.
+ *
+ * A test case is named "classname#name", like the names in v2 files. It is FAILED if it has a failure or error element,
+ * 	SKIPPED if it has a skipped element, and FINISHED otherwise. JUnit XML has no thread ids, so the results have none.
+ */
+public class JUnitXmlParser {
+	private static final XMLInputFactory factory = createFactory();
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// Reports come from the workspace, so they must not be able to make the controller read other files.
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		// Coalescing would build all of a system-out element's text into one string just for it to be skipped.
+		// getElementText joins the pieces of the text that is kept.
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+
+	/**
+	 * @param growing True if the report may still be being written. Whatever test cases are complete are kept when the XML ends early.
+	 */
+	static void parse(TestRecorder testRecorder, InputStream in, FilePath file, Run build, String uniqueId, String url, RecordingStats stats, boolean findAges, boolean growing, Map<TestResult, TestStatus> results) {
+		String runId = RunUtils.getRealExternalizableId(build);
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(in);
+			while(reader.hasNext()) {
+				if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("testcase")) {
+					TestResult result = readTestCase(reader, build, runId, uniqueId, url, stats, findAges);
+					if (testRecorder != null) {
+						long highlightStart = System.nanoTime();
+						testRecorder.setIsCritical(result);
+						stats.addTime(RecordingStats.Phase.HIGHLIGHT, System.nanoTime() - highlightStart);
+					}
+					TestResult.keepMoreInteresting(results, result);
+				}
+			}
+		} catch (XMLStreamException e) {
+			if(!growing) {
+				int line = e.getLocation() == null ? 0 : e.getLocation().getLineNumber() - 1;
+				throw new IllegalFailureFileFormatException(file, line, "Invalid JUnit XML: " + e.getMessage());
+			}
+		} finally {
+			if(reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException ignore) {
+					// The stream itself is closed by the caller.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads from a testcase start element to its end element.
+	 */
+	private static TestResult readTestCase(XMLStreamReader reader, Run build, String runId, String uniqueId, String url, RecordingStats stats, boolean findAges) throws XMLStreamException {
+		String className = reader.getAttributeValue(null, "classname");
+		String testName = reader.getAttributeValue(null, "name");
+		String name = className == null || className.isEmpty() ? testName : className + "#" + testName;
+		long time = parseTime(reader.getAttributeValue(null, "time"));
+
+		TestStatus status = TestStatus.FINISHED;
+		StringBuilder stackTrace = null;
+		int depth = 1;
+		while(depth > 0) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String element = reader.getLocalName();
+				if(depth == 2 && (element.equals("failure") || element.equals("error"))) {
+					// A test case can fail more than once (an error in tearDown after a failure). Keep every trace.
+					status = TestStatus.FAILED;
+					if(stackTrace == null) {
+						stackTrace = new StringBuilder();
+					}
+					String message = reader.getAttributeValue(null, "message");
+					String type = reader.getAttributeValue(null, "type");
+					String text = reader.getElementText();
+					depth--;
+					if(text.trim().isEmpty()) {
+						text = type == null ? (message == null ? "" : message) : (message == null ? type : type + ": " + message);
+					}
+					stackTrace.append(text);
+					if(stackTrace.length() > 0 && stackTrace.charAt(stackTrace.length() - 1) != '\n') {
+						stackTrace.append('\n');
+					}
+				} else if(depth == 2 && element.equals("skipped") && status != TestStatus.FAILED) {
+					status = TestStatus.SKIPPED;
+				}
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			// Any other event, such as the text of system-out, is dropped without being kept.
+		}
+
+		if(status == TestStatus.FAILED) {
+			TestResult result = new TestResult(name, time, null, status, runId, stackTrace.toString(), 0, null, url, uniqueId);
+			if(findAges) {
+				result = TestResult.findAges(Collections.singletonList(result), build, uniqueId, stats).get(0);
+			}
+			return result;
+		}
+		return new TestResult(name, time, null, status, runId, null, 0, null, url, uniqueId);
+	}
+
+	/**
+	 * @return The time attribute, which is in seconds, in milliseconds. -1 if it's missing or not a number.
+	 */
+	static long parseTime(String seconds) {
+		if(seconds == null || seconds.isEmpty()) {
+			return -1;
+		}
+		try {
+			// Some writers format large times with grouping separators.
+			return new BigDecimal(seconds.replace(",", "")).movePointRight(3).longValue();
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
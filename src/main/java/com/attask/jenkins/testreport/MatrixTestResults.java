@@ -0,0 +1,298 @@
+package com.attask.jenkins.testreport;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.*;
+
+/**
+ * Compact, axis-aware view of a matrix build's merged results.
+ * There is exactly one record per test name. Each record is a slice of the flat status and time vectors,
+ * 	so a test that ran on every axis costs one byte and one int per axis instead of a TestResult per axis.
+ */
+@ExportedBean
+public class MatrixTestResults {
+	private static final byte NOT_RUN = 0;
+
+	private final String[] axes;
+	private final String[] names;
+	/**
+	 * statuses[testIndex * axes.length + axisIndex] is the TestStatus ordinal + 1, or NOT_RUN if the axis didn't report the test.
+	 */
+	private final byte[] statuses;
+	/**
+	 * Same layout as statuses. -1 if the time is unknown.
+	 */
+	private final int[] times;
+
+	private MatrixTestResults(String[] axes, String[] names, byte[] statuses, int[] times) {
+		this.axes = axes;
+		this.names = names;
+		this.statuses = statuses;
+		this.times = times;
+	}
+
+	/**
+	 * Merges the results of each axis into the compact representation.
+	 * @param axes The display name of each axis. Index i of axes corresponds to index i of resultsByAxis.
+	 * @param resultsByAxis The results reported by each axis.
+	 */
+	public static MatrixTestResults merge(List<String> axes, List<? extends Collection<TestResult>> resultsByAxis) {
+		if(axes == null) {
+			throw new NullPointerException("axes");
+		}
+		if(resultsByAxis == null) {
+			throw new NullPointerException("resultsByAxis");
+		}
+		if(axes.size() != resultsByAxis.size()) {
+			throw new IllegalArgumentException("Expected results for " + axes.size() + " axes but got " + resultsByAxis.size());
+		}
+
+		TreeSet<String> sortedNames = new TreeSet<String>();
+		for (Collection<TestResult> results : resultsByAxis) {
+			for (TestResult result : results) {
+				sortedNames.add(result.getName());
+			}
+		}
+
+		String[] names = sortedNames.toArray(new String[sortedNames.size()]);
+		int axisCount = axes.size();
+		byte[] statuses = new byte[names.length * axisCount];
+		int[] times = new int[names.length * axisCount];
+		Arrays.fill(times, -1);
+
+		for (int axis = 0; axis < axisCount; axis++) {
+			for (TestResult result : resultsByAxis.get(axis)) {
+				int offset = Arrays.binarySearch(names, result.getName()) * axisCount + axis;
+				if(statuses[offset] == NOT_RUN || result.getStatus().isMoreInterestingThan(TestStatus.values()[statuses[offset] - 1])) {
+					statuses[offset] = (byte) (result.getStatus().ordinal() + 1);
+					times[offset] = (int) Math.min(Integer.MAX_VALUE, result.getTime());
+				}
+			}
+		}
+
+		return new MatrixTestResults(axes.toArray(new String[axisCount]), names, statuses, times);
+	}
+
+	/**
+	 * Picks the single TestResult that represents each test on the merged report.
+	 * The first axis (in axis order) that failed the test wins. If no axis failed it, the first axis that reported it wins.
+	 * This makes the merge deterministic instead of depending on HashSet iteration order.
+	 */
+	public static Collection<TestResult> pickRepresentatives(List<? extends Collection<TestResult>> resultsByAxis) {
+		Map<String, TestResult> representatives = new LinkedHashMap<String, TestResult>();
+		for (Collection<TestResult> results : resultsByAxis) {
+			for (TestResult result : results) {
+				TestResult current = representatives.get(result.getName());
+				if(current == null || (!isFailing(current.getStatus()) && isFailing(result.getStatus()))) {
+					representatives.put(result.getName(), result);
+				}
+			}
+		}
+		return representatives.values();
+	}
+
+	/**
+	 * Matches TestResultAction#getFailCount: anything that isn't FINISHED or SKIPPED counts as failing.
+	 */
+	private static boolean isFailing(TestStatus status) {
+		return status != TestStatus.FINISHED && status != TestStatus.SKIPPED;
+	}
+
+	@Exported
+	public List<String> getAxes() {
+		return Collections.unmodifiableList(Arrays.asList(axes));
+	}
+
+	public int getAxisCount() {
+		return axes.length;
+	}
+
+	public int getTestCount() {
+		return names.length;
+	}
+
+	/**
+	 * @return The status the given axis reported for the test, or null if the axis didn't run it.
+	 */
+	public TestStatus findStatus(String testName, int axis) {
+		int offset = offsetOf(testName);
+		if(offset < 0) {
+			return null;
+		}
+		return toStatus(statuses[offset + axis]);
+	}
+
+	/**
+	 * @return The time the given axis reported for the test, or -1 if unknown.
+	 */
+	public long findTime(String testName, int axis) {
+		int offset = offsetOf(testName);
+		if(offset < 0) {
+			return -1;
+		}
+		return times[offset + axis];
+	}
+
+	/**
+	 * @return The number of axes that reported the test at all.
+	 */
+	public int findRunAxisCount(String testName) {
+		int offset = offsetOf(testName);
+		if(offset < 0) {
+			return 0;
+		}
+		return countRun(offset);
+	}
+
+	/**
+	 * @return The number of axes the test failed (or didn't finish) on.
+	 */
+	public int findFailingAxisCount(String testName) {
+		int offset = offsetOf(testName);
+		if(offset < 0) {
+			return 0;
+		}
+		return countFailing(offset);
+	}
+
+	/**
+	 * @return The name of the axis that took the longest to run the test, or null if no axis reported a time.
+	 */
+	public String findSlowestAxis(String testName) {
+		int offset = offsetOf(testName);
+		if(offset < 0) {
+			return null;
+		}
+		int slowest = -1;
+		for (int axis = 0; axis < axes.length; axis++) {
+			if(times[offset + axis] >= 0 && (slowest < 0 || times[offset + axis] > times[offset + slowest])) {
+				slowest = axis;
+			}
+		}
+		return slowest < 0 ? null : axes[slowest];
+	}
+
+	/**
+	 * @return The names of every test that failed on at least minFailingAxes axes, sorted by name.
+	 */
+	public List<String> findTestsFailingOn(int minFailingAxes) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < names.length; i++) {
+			if(countFailing(i * axes.length) >= minFailingAxes) {
+				result.add(names[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The names of every test that failed on some axes but not on all the axes it ran on.
+	 */
+	public List<String> findAxisSpecificFailures() {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < names.length; i++) {
+			int offset = i * axes.length;
+			int failing = countFailing(offset);
+			if(failing > 0 && failing < countRun(offset)) {
+				result.add(names[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * One row per test. Rows are created on demand for the remote API and aren't retained.
+	 */
+	@Exported(name = "tests")
+	public List<Row> getRows() {
+		List<Row> rows = new ArrayList<Row>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			rows.add(new Row(i));
+		}
+		return rows;
+	}
+
+	private int countFailing(int offset) {
+		int count = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			TestStatus status = toStatus(statuses[offset + axis]);
+			if(status != null && isFailing(status)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int countRun(int offset) {
+		int count = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			if(statuses[offset + axis] != NOT_RUN) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int offsetOf(String testName) {
+		int index = Arrays.binarySearch(names, testName);
+		return index < 0 ? -1 : index * axes.length;
+	}
+
+	private static TestStatus toStatus(byte code) {
+		return code == NOT_RUN ? null : TestStatus.values()[code - 1];
+	}
+
+	@ExportedBean(defaultVisibility = 3)
+	public class Row {
+		private final int index;
+
+		private Row(int index) {
+			this.index = index;
+		}
+
+		@Exported
+		public String getName() {
+			return names[index];
+		}
+
+		@Exported
+		public int getFailingAxes() {
+			return countFailing(index * axes.length);
+		}
+
+		@Exported
+		public int getRunAxes() {
+			return countRun(index * axes.length);
+		}
+
+		@Exported
+		public String getSlowestAxis() {
+			return findSlowestAxis(names[index]);
+		}
+
+		/**
+		 * @return The status reported by each axis, in axis order. null entries mean the axis didn't run the test.
+		 */
+		@Exported
+		public List<TestStatus> getStatuses() {
+			List<TestStatus> result = new ArrayList<TestStatus>(axes.length);
+			for (int axis = 0; axis < axes.length; axis++) {
+				result.add(toStatus(statuses[index * axes.length + axis]));
+			}
+			return result;
+		}
+
+		/**
+		 * @return The time reported by each axis, in axis order. -1 means unknown.
+		 */
+		@Exported
+		public List<Integer> getTimes() {
+			List<Integer> result = new ArrayList<Integer>(axes.length);
+			for (int axis = 0; axis < axes.length; axis++) {
+				result.add(times[index * axes.length + axis]);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.attask.jenkins.testreport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * The names and durations of a build's passed tests, for actions that don't keep passed tests in full.
+ * Stored as one newline separated string of sorted names and a varint encoded byte[] of durations,
+ * 	which XStream writes as two elements instead of one element per field per test.
+ */
+public class PassedResults {
+	private final String names;
+	private final byte[] times;
+
+	private transient String[] nameIndex;
+	private transient long[] timeIndex;
+
+	private PassedResults(String names, byte[] times) {
+		this.names = names;
+		this.times = times;
+	}
+
+	public static PassedResults create(Collection<TestResult> passed) {
+		List<TestResult> sorted = new ArrayList<TestResult>(passed);
+		Collections.sort(sorted, new Comparator<TestResult>() {
+			public int compare(TestResult first, TestResult second) {
+				return first.getName().compareTo(second.getName());
+			}
+		});
+
+		StringBuilder names = new StringBuilder();
+		ByteArrayOutputStream times = new ByteArrayOutputStream(sorted.size() * 2);
+		for (TestResult result : sorted) {
+			if(names.length() > 0) {
+				names.append('\n');
+			}
+			names.append(result.getName());
+			// +1 so the -1 used for an unknown time still encodes as an unsigned varint.
+			long time = Math.max(-1, result.getTime()) + 1;
+			while((time & ~0x7FL) != 0) {
+				times.write((int) ((time & 0x7F) | 0x80));
+				time >>>= 7;
+			}
+			times.write((int) time);
+		}
+		return new PassedResults(names.toString(), times.toByteArray());
+	}
+
+	private synchronized void index() {
+		if(nameIndex != null) {
+			return;
+		}
+		String[] parsedNames = names.isEmpty() ? new String[0] : names.split("\n");
+		long[] parsedTimes = new long[parsedNames.length];
+		int position = 0;
+		for (int i = 0; i < parsedTimes.length; i++) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = times[position++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while((b & 0x80) != 0);
+			parsedTimes[i] = value - 1;
+		}
+		timeIndex = parsedTimes;
+		nameIndex = parsedNames;
+	}
+
+	public int size() {
+		index();
+		return nameIndex.length;
+	}
+
+	/**
+	 * @return The test as a FINISHED result, or null if it isn't one of the passed tests.
+	 */
+	public TestResult find(String name, String runId, String url, String uniquifier) {
+		index();
+		int index = Arrays.binarySearch(nameIndex, name);
+		if(index < 0) {
+			return null;
+		}
+		return toResult(index, runId, url, uniquifier);
+	}
+
+	public List<TestResult> toResults(String runId, String url, String uniquifier) {
+		index();
+		List<TestResult> results = new ArrayList<TestResult>(nameIndex.length);
+		for (int i = 0; i < nameIndex.length; i++) {
+			results.add(toResult(i, runId, url, uniquifier));
+		}
+		return results;
+	}
+
+	private TestResult toResult(int index, String runId, String url, String uniquifier) {
+		return new TestResult(nameIndex[index], timeIndex[index], null, TestStatus.FINISHED, runId, null, 0, null, url, uniquifier);
+	}
+}
@@ -0,0 +1,294 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.format.ResultFileV3;
+import com.attask.jenkins.testreport.format.ResultFileV3Reader;
+import hudson.FilePath;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a results file, which may be gzip compressed: v2 text, v3 binary or a JUnit XML report.
+ * The compression is recognized by the file's first bytes rather than its name, so any file resultsFilePattern matches can be compressed.
+ * The file is streamed from the agent as it is and decompressed here, so only the compressed bytes cross the remoting channel.
+ */
+public class ResultFileReader implements Closeable {
+	public enum Compression {
+		NONE,
+		GZIP,
+		ZSTD;
+
+		public static Compression detect(byte[] header, int length) {
+			if(length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b) {
+				return GZIP;
+			}
+			if(length >= 4 && (header[0] & 0xff) == 0x28 && (header[1] & 0xff) == 0xb5 && (header[2] & 0xff) == 0x2f && (header[3] & 0xff) == 0xfd) {
+				return ZSTD;
+			}
+			return NONE;
+		}
+	}
+
+	private static final int HEADER_LENGTH = 4;
+	private static final int XML_PROBE_LENGTH = 64;
+
+	private final InputStream raw;
+	private final BufferedInputStream in;
+	private final TruncatedInputStream truncatable;
+	private final boolean growing;
+	private final boolean v3;
+	private final boolean junitXml;
+
+	private ResultFileReader(InputStream raw, InputStream decompressed, boolean growing, boolean compressed) throws IOException {
+		this.raw = raw;
+		this.growing = growing;
+		this.truncatable = growing && compressed ? new TruncatedInputStream(decompressed) : null;
+		this.in = new BufferedInputStream(truncatable != null ? truncatable : decompressed, 64 * 1024);
+		in.mark(XML_PROBE_LENGTH);
+		byte[] header = new byte[XML_PROBE_LENGTH];
+		int length = readFully(in, header);
+		v3 = ResultFileV3.hasHeader(header, length);
+		junitXml = !v3 && isXml(header, length);
+		in.reset();
+	}
+
+	/**
+	 * v2 files start with their version line, so anything whose first character (after a byte order mark and whitespace) is '<' is XML.
+	 */
+	private static boolean isXml(byte[] header, int length) {
+		int i = 0;
+		if(length >= 3 && (header[0] & 0xff) == 0xef && (header[1] & 0xff) == 0xbb && (header[2] & 0xff) == 0xbf) {
+			i = 3;
+		}
+		while(i < length && Character.isWhitespace(header[i])) {
+			i++;
+		}
+		return i < length && header[i] == '<';
+	}
+
+	public static Compression detect(FilePath file) throws IOException {
+		InputStream in = file.read();
+		try {
+			byte[] header = new byte[HEADER_LENGTH];
+			return Compression.detect(header, readFully(in, header));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return True for an uncompressed v2 file, the only kind that can be split into byte ranges and parsed in parallel.
+	 */
+	public static boolean isSplittable(FilePath file) throws IOException {
+		InputStream in = file.read();
+		try {
+			byte[] header = new byte[XML_PROBE_LENGTH];
+			int length = readFully(in, header);
+			return Compression.detect(header, length) == Compression.NONE && !ResultFileV3.hasHeader(header, length) && !isXml(header, length);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a results file of either version, decompressing it if needed.
+	 * @param growing True if the file may still be being written, as in the live view.
+	 * 	A compressed file that's still being written ends partway through a block, so everything that can be decompressed is read,
+	 * 	and an incomplete last line or record is dropped. The writer should flush its compressor (SYNC_FLUSH) to keep the live view current.
+	 */
+	public static ResultFileReader open(FilePath file, boolean growing) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(file.read());
+		try {
+			in.mark(HEADER_LENGTH);
+			byte[] header = new byte[HEADER_LENGTH];
+			Compression compression = Compression.detect(header, readFully(in, header));
+			in.reset();
+
+			switch (compression) {
+				case GZIP:
+					try {
+						return new ResultFileReader(in, new GZIPInputStream(in, 64 * 1024), growing, true);
+					} catch (EOFException e) {
+						if(growing) {
+							// The writer hasn't even finished the gzip header yet.
+							ResultFileReader reader = new ResultFileReader(in, new ByteArrayInputStream(new byte[0]), true, true);
+							reader.truncatable.truncated = true;
+							return reader;
+						}
+						throw e;
+					}
+				case ZSTD:
+					throw new IOException(file.getRemote() + " is zstd compressed, which can't be read on the Java version this plugin supports. Compress results files with gzip instead.");
+				default:
+					return new ResultFileReader(in, in, growing, false);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Splits the file into lines exactly like String.split("\r?\n") on its whole content.
+	 * @see #open
+	 */
+	public static List<String> readLines(FilePath file, boolean growing) throws IOException {
+		ResultFileReader reader = open(file, growing);
+		try {
+			return reader.readLines();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return True if the file is in the binary "AtTask Failures v3" format rather than v2 text.
+	 */
+	public boolean isV3() {
+		return v3;
+	}
+
+	/**
+	 * @return True if the file is a JUnit XML report.
+	 */
+	public boolean isJUnitXml() {
+		return junitXml;
+	}
+
+	/**
+	 * @return The decompressed content, for JUnitXmlParser.
+	 */
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	/**
+	 * Splits a v2 file into lines exactly like String.split("\r?\n") on its whole content.
+	 */
+	public List<String> readLines() throws IOException {
+		return readLines(new InputStreamReader(in), truncatable);
+	}
+
+	/**
+	 * @return A reader over the results of a v3 file.
+	 */
+	public ResultFileV3Reader readRecords() throws IOException {
+		return new ResultFileV3Reader(in, growing);
+	}
+
+	public void close() throws IOException {
+		raw.close();
+	}
+
+	/**
+	 * @param source If not null, the stream that the reader decodes and that may end early.
+	 */
+	private static List<String> readLines(Reader reader, TruncatedInputStream source) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		StringBuilder line = new StringBuilder();
+		char[] buffer = new char[8192];
+		boolean empty = true;
+		while(true) {
+			int read = reader.read(buffer);
+			if(read < 0) {
+				break;
+			}
+			if(read > 0) {
+				empty = false;
+			}
+			for (int i = 0; i < read; i++) {
+				char c = buffer[i];
+				if(c == '\n') {
+					lines.add(endLine(line));
+				} else {
+					line.append(c);
+				}
+			}
+		}
+		boolean truncated = source != null && source.isTruncated();
+		if(empty && !truncated) {
+			// "".split() gives one empty line, and the version check reports the file as invalid.
+			lines.add("");
+			return lines;
+		}
+		if(line.length() > 0 && !truncated) {
+			lines.add(endLine(line));
+		}
+		int end = lines.size();
+		while(end > 0 && lines.get(end - 1).isEmpty()) {
+			end--;
+		}
+		return end == lines.size() ? lines : new ArrayList<String>(lines.subList(0, end));
+	}
+
+	private static String endLine(StringBuilder line) {
+		int length = line.length();
+		if(length > 0 && line.charAt(length - 1) == '\r') {
+			length--;
+		}
+		String result = line.substring(0, length);
+		line.setLength(0);
+		return result;
+	}
+
+	/**
+	 * Ends the stream where the compressed data runs out, instead of failing.
+	 * The decompressor has to do this below the reader, which would otherwise lose the characters it has already decoded.
+	 */
+	private static class TruncatedInputStream extends FilterInputStream {
+		private boolean truncated;
+
+		TruncatedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(truncated) {
+				return -1;
+			}
+			try {
+				return super.read();
+			} catch (EOFException e) {
+				truncated = true;
+				return -1;
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(truncated) {
+				return -1;
+			}
+			try {
+				return super.read(buffer, offset, length);
+			} catch (EOFException e) {
+				truncated = true;
+				return -1;
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return truncated ? 0 : super.available();
+		}
+
+		public boolean isTruncated() {
+			return truncated;
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		while(total < buffer.length) {
+			int read = in.read(buffer, total, buffer.length - total);
+			if(read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+}
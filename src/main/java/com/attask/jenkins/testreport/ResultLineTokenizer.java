@@ -0,0 +1,211 @@
+package com.attask.jenkins.testreport;
+
+import java.util.Locale;
+
+/**
+ * Splits the lines of a results file ("failed com.example.SomeTest thread-3 1234") without building throwaway strings.
+ * Parsing used to split every line with a regex, copy every token and upper-case the status, and checking each stack trace
+ * 	line for the start of the next test lower-cased every status name. On big files that garbage cost more than the parsing.
+ *
+ * The status is found by looking the first letter up in a table and comparing the rest in place.
+ * The fields are kept as offsets into the line, and only the ones a result keeps are turned into strings.
+ * A tokenizer holds the state of the last line, so each parsing thread needs its own.
+ */
+public class ResultLineTokenizer {
+	private static final int FIELDS = 3;
+
+	private static final String[] KEYWORDS = new String[TestStatus.values().length];
+	private static final TestStatus[][] STATUSES_BY_FIRST_LETTER = new TestStatus[128][];
+	static {
+		for (TestStatus status : TestStatus.values()) {
+			String keyword = status.name().toLowerCase(Locale.ENGLISH);
+			KEYWORDS[status.ordinal()] = keyword;
+			TestStatus[] existing = STATUSES_BY_FIRST_LETTER[keyword.charAt(0)];
+			TestStatus[] statuses = new TestStatus[existing == null ? 1 : existing.length + 1];
+			if(existing != null) {
+				System.arraycopy(existing, 0, statuses, 0, existing.length);
+			}
+			statuses[statuses.length - 1] = status;
+			STATUSES_BY_FIRST_LETTER[keyword.charAt(0)] = statuses;
+		}
+	}
+
+	private String line;
+	private int statusEnd;
+	private TestStatus status;
+	private final int[] fieldStarts = new int[FIELDS];
+	private final int[] fieldEnds = new int[FIELDS];
+	private int fieldCount;
+	private String lastThreadId;
+
+	/**
+	 * @return The status of a line that starts with a lower case status name and a space, or null for any other line.
+	 * 	A failure's stack trace runs until the next line like that.
+	 */
+	public static TestStatus testLineStatus(String line) {
+		return matchStatus(line, line.indexOf(' '), false);
+	}
+
+	/**
+	 * Splits a line into its status and fields. Afterwards the getters describe this line.
+	 * @return False if the line has no space, so can't be a result. The parser skips those.
+	 */
+	public boolean tokenize(String line) {
+		this.line = line;
+		statusEnd = line.indexOf(' ');
+		if(statusEnd < 0) {
+			status = null;
+			fieldCount = 0;
+			return false;
+		}
+		status = matchStatus(line, statusEnd, true);
+
+		// The fields are separated by single whitespace characters, so two in a row make an empty field.
+		// Like String.split, empty fields at the end don't count.
+		fieldCount = 0;
+		int field = 0;
+		int start = statusEnd + 1;
+		for (int i = start; i <= line.length(); i++) {
+			if(i == line.length() || isSeparator(line.charAt(i))) {
+				if(field < FIELDS) {
+					fieldStarts[field] = start;
+					fieldEnds[field] = i;
+				}
+				field++;
+				if(i > start) {
+					fieldCount = field;
+				}
+				start = i + 1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The status of the line, or null if the first word isn't a status. The match ignores case.
+	 */
+	public TestStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The first word of the line. Only for error messages, since it makes a copy.
+	 */
+	public String getStatusToken() {
+		return line.substring(0, statusEnd);
+	}
+
+	/**
+	 * @return Everything after the status, trimmed. Added and started lines only have a name, which may contain spaces.
+	 */
+	public String getTrimmedRest() {
+		int start = statusEnd + 1;
+		int end = line.length();
+		while(start < end && line.charAt(start) <= ' ') {
+			start++;
+		}
+		while(end > start && line.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return line.substring(start, end);
+	}
+
+	public String getName() {
+		return field(0);
+	}
+
+	public boolean hasThreadId() {
+		return fieldCount > 1;
+	}
+
+	/**
+	 * A file only has a handful of thread ids, so the previous one is reused when it matches rather than copied again.
+	 */
+	public String getThreadId() {
+		int start = fieldStarts[1];
+		int length = fieldEnds[1] - start;
+		if(lastThreadId == null || lastThreadId.length() != length || !line.regionMatches(start, lastThreadId, 0, length)) {
+			lastThreadId = field(1);
+		}
+		return lastThreadId;
+	}
+
+	public boolean hasRunTime() {
+		return fieldCount > 2;
+	}
+
+	/**
+	 * @throws NumberFormatException If the field isn't a number, with the same message as Long.parseLong.
+	 */
+	public long getRunTime() {
+		int start = fieldStarts[2];
+		int end = fieldEnds[2];
+		int i = start;
+		boolean negative = false;
+		if(i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+			negative = line.charAt(i) == '-';
+			i++;
+		}
+		// 18 digits can't overflow a long. Anything longer, or anything that isn't a digit, goes the slow way for the exception.
+		if(i == end || end - i > 18) {
+			return Long.parseLong(field(2));
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			char c = line.charAt(i);
+			if(c < '0' || c > '9') {
+				return Long.parseLong(field(2));
+			}
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return The run time field as it appears in the line. Only for error messages, since it makes a copy.
+	 */
+	public String getRunTimeToken() {
+		return field(2);
+	}
+
+	private String field(int index) {
+		if(index >= fieldCount && index > 0) {
+			throw new IndexOutOfBoundsException("Field " + index + " of " + line);
+		}
+		if(fieldCount == 0) {
+			return "";
+		}
+		return line.substring(fieldStarts[index], fieldEnds[index]);
+	}
+
+	private static TestStatus matchStatus(String line, int statusEnd, boolean ignoreCase) {
+		if(statusEnd <= 0) {
+			return null;
+		}
+		char first = line.charAt(0);
+		if(ignoreCase) {
+			first = Character.toLowerCase(first);
+		}
+		if(first >= STATUSES_BY_FIRST_LETTER.length) {
+			return null;
+		}
+		TestStatus[] candidates = STATUSES_BY_FIRST_LETTER[first];
+		if(candidates == null) {
+			return null;
+		}
+		for (TestStatus candidate : candidates) {
+			String keyword = KEYWORDS[candidate.ordinal()];
+			if(keyword.length() == statusEnd && line.regionMatches(ignoreCase, 0, keyword, 0, statusEnd)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The characters \s matches.
+	 */
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
@@ -0,0 +1,300 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.storage.ResultRetention;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A filtered, sorted and projected view of one build's results, for dashboards that would otherwise download every field of every result
+ * 	from api/json. Evaluated against the action's shared indexes: a single status comes from its age-sorted list, an exact name from the
+ * 	name map, and everything else from the name, age or time-sorted view, so nothing is sorted per request.
+ *
+ * Parameters, all optional:
+ * 	status: comma separated statuses, like FAILED,STARTED
+ * 	minAge, maxAge: inclusive bounds on the age
+ * 	name: a glob on the whole name, where * matches any characters and ? one
+ * 	regex: a regular expression found anywhere in the name
+ * 	uniquifier: only this build's results if its uniquifier is this
+ * 	sort: name (default), age (oldest failure first) or time (slowest first). Prefix with - to reverse.
+ * 	offset: how many matches to skip (default 0)
+ * 	limit: how many matches to return at most (default 1000)
+ * 	fields: comma separated fields to return (default name,status,age,time). One of FIELDS. Every field asked for is in each result, null if it has no value.
+ *
+ * With PASSED_AS_COUNT retention the passed tests aren't known by name, so no query matches them.
+ */
+public class ResultQuery {
+	public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+			"name", "status", "age", "time", "threadId", "runId", "firstFailingBuildId", "url", "uniquifier", "stackTrace"
+	));
+	private static final List<String> DEFAULT_FIELDS = Arrays.asList("name", "status", "age", "time");
+	private static final int DEFAULT_LIMIT = 1000;
+
+	private enum Sort {
+		NAME(TestResultSet.BY_NAME),
+		AGE(null),
+		TIME(TestResultSet.BY_TIME);
+
+		private final Comparator<TestResult> comparator;
+
+		Sort(Comparator<TestResult> comparator) {
+			this.comparator = comparator;
+		}
+	}
+
+	private final EnumSet<TestStatus> statuses;
+	private final int minAge;
+	private final int maxAge;
+	private final String exactName;
+	private final Pattern namePattern;
+	private final Pattern regex;
+	private final String uniquifier;
+	private final Sort sort;
+	private final boolean reverse;
+	private final int offset;
+	private final int limit;
+	private final List<String> fields;
+
+	private ResultQuery(StaplerRequest request) {
+		String status = request.getParameter("status");
+		if(isEmpty(status)) {
+			statuses = EnumSet.allOf(TestStatus.class);
+		} else {
+			statuses = EnumSet.noneOf(TestStatus.class);
+			for (String token : status.split(",")) {
+				try {
+					statuses.add(TestStatus.valueOf(token.trim().toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown status '" + token.trim() + "'. The statuses are " + Arrays.toString(TestStatus.values()));
+				}
+			}
+		}
+
+		minAge = parseInt(request, "minAge", Integer.MIN_VALUE);
+		maxAge = parseInt(request, "maxAge", Integer.MAX_VALUE);
+
+		String name = request.getParameter("name");
+		if(isEmpty(name)) {
+			exactName = null;
+			namePattern = null;
+		} else if(name.indexOf('*') < 0 && name.indexOf('?') < 0) {
+			exactName = name;
+			namePattern = null;
+		} else {
+			exactName = null;
+			namePattern = globToPattern(name);
+		}
+
+		String regexParameter = request.getParameter("regex");
+		try {
+			regex = isEmpty(regexParameter) ? null : Pattern.compile(regexParameter);
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("regex is invalid: " + e.getDescription());
+		}
+
+		uniquifier = request.getParameter("uniquifier");
+
+		String sortParameter = request.getParameter("sort");
+		if(isEmpty(sortParameter)) {
+			sort = Sort.NAME;
+			reverse = false;
+		} else {
+			reverse = sortParameter.startsWith("-");
+			String sortName = (reverse ? sortParameter.substring(1) : sortParameter).trim();
+			try {
+				sort = Sort.valueOf(sortName.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown sort '" + sortName + "'. The sorts are name, age and time");
+			}
+		}
+
+		offset = parseInt(request, "offset", 0);
+		limit = parseInt(request, "limit", DEFAULT_LIMIT);
+		if(offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit can't be negative");
+		}
+
+		String fieldsParameter = request.getParameter("fields");
+		if(isEmpty(fieldsParameter)) {
+			fields = DEFAULT_FIELDS;
+		} else {
+			fields = new ArrayList<String>();
+			for (String token : fieldsParameter.split(",")) {
+				String field = token.trim();
+				if(!FIELDS.contains(field)) {
+					throw new IllegalArgumentException("Unknown field '" + field + "'. The fields are " + FIELDS);
+				}
+				fields.add(field);
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException If a parameter is invalid. The message says which.
+	 */
+	public static ResultQuery fromRequest(StaplerRequest request) {
+		return new ResultQuery(request);
+	}
+
+	/**
+	 * @return The total number of matches, and the page of them between offset and limit, with only the requested fields.
+	 */
+	public JSONObject run(TestResultAction action) {
+		JSONArray page = new JSONArray();
+		int total = 0;
+
+		if(uniquifier == null || uniquifier.equals(action.getUniquifier() == null ? "" : action.getUniquifier())) {
+			List<TestResult> candidates = findCandidates(action);
+			int size = candidates.size();
+			for (int i = 0; i < size; i++) {
+				TestResult result = candidates.get(reverse ? size - 1 - i : i);
+				if(sort == Sort.AGE && !reverse && result.getAge() < minAge) {
+					// Oldest first, so nothing after this is old enough either.
+					break;
+				}
+				if(!matches(result)) {
+					continue;
+				}
+				if(total >= offset && total - offset < limit) {
+					page.add(project(result));
+				}
+				total++;
+			}
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("buildId", action.getBuildId());
+		json.put("total", total);
+		json.put("offset", offset);
+		json.put("limit", limit);
+		json.put("results", page);
+		return json;
+	}
+
+	/**
+	 * @return Every result that might match, in the requested order.
+	 */
+	private List<TestResult> findCandidates(TestResultAction action) {
+		if(exactName != null) {
+			TestResult result = action.findResult(exactName);
+			return result == null ? Collections.<TestResult>emptyList() : Collections.singletonList(result);
+		}
+
+		// Passed tests that weren't kept in full are only in findAllResults, which is sorted by name.
+		boolean passedOnlyByName = statuses.contains(TestStatus.FINISHED) && action.getRetention() == ResultRetention.PASSED_AS_NAMES;
+		if(statuses.size() == 1 && sort == Sort.AGE && !passedOnlyByName) {
+			// Each status's list is in TestResult's natural order, which is the age sort.
+			return action.findResults(statuses.iterator().next());
+		}
+		switch (sort) {
+			case AGE:
+				return passedOnlyByName ? sorted(action.findAllResults(), null) : action.findResultsByAge();
+			case TIME:
+				return passedOnlyByName ? sorted(action.findAllResults(), sort.comparator) : action.findResultsByTime();
+			default:
+				return action.findAllResults();
+		}
+	}
+
+	private List<TestResult> sorted(List<TestResult> results, Comparator<TestResult> comparator) {
+		List<TestResult> matches = new ArrayList<TestResult>();
+		for (TestResult result : results) {
+			if(matches(result)) {
+				matches.add(result);
+			}
+		}
+		Collections.sort(matches, comparator);
+		return matches;
+	}
+
+	private boolean matches(TestResult result) {
+		if(!statuses.contains(result.getStatus())) {
+			return false;
+		}
+		int age = result.getAge();
+		if(age < minAge || age > maxAge) {
+			return false;
+		}
+		if(namePattern != null && !namePattern.matcher(result.getName()).matches()) {
+			return false;
+		}
+		return regex == null || regex.matcher(result.getName()).find();
+	}
+
+	private JSONObject project(TestResult result) {
+		JSONObject json = new JSONObject();
+		for (String field : fields) {
+			if(field.equals("name")) {
+				json.put(field, result.getName());
+			} else if(field.equals("status")) {
+				json.put(field, result.getStatus().name());
+			} else if(field.equals("age")) {
+				json.put(field, result.getAge());
+			} else if(field.equals("time")) {
+				json.put(field, result.getTime());
+			} else if(field.equals("threadId")) {
+				json.put(field, orNull(result.getThreadId()));
+			} else if(field.equals("runId")) {
+				json.put(field, orNull(result.getRunId()));
+			} else if(field.equals("firstFailingBuildId")) {
+				json.put(field, orNull(result.getFirstFailingBuildId()));
+			} else if(field.equals("url")) {
+				json.put(field, orNull(result.getUrl()));
+			} else if(field.equals("uniquifier")) {
+				json.put(field, orNull(result.getUniquifier()));
+			} else if(field.equals("stackTrace")) {
+				json.put(field, orNull(result.getStackTrace()));
+			}
+		}
+		return json;
+	}
+
+	/**
+	 * JSONObject drops a key put with a null value, so a missing value has to be JSONNull for every asked-for field to be in the result.
+	 */
+	private static Object orNull(Object value) {
+		return value == null ? JSONNull.getInstance() : value;
+	}
+
+	private static Pattern globToPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if(c == '*' || c == '?') {
+				if(literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if(literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private static int parseInt(StaplerRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if(isEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+}
@@ -1,5 +1,6 @@
 package com.attask.jenkins.testreport;
 
+import com.attask.jenkins.testreport.metrics.ReportMetrics;
 import hudson.DescriptorExtensionList;
 import hudson.ExtensionPoint;
 import hudson.model.AbstractBuild;
@@ -8,6 +9,8 @@ import hudson.model.Descriptor;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Collection;
 
 /**
@@ -78,6 +81,85 @@ public abstract class TestDataPublisher extends AbstractDescribableImpl<TestData
 	 */
 	public abstract boolean after(AbstractBuild<?, ?> build, Collection<TestResult> testResults) throws IOException, InterruptedException;
 
+	/**
+	 * Calls #before and records how long it took in ReportMetrics. Used by the report pages.
+	 */
+	public final boolean timedBefore(AbstractBuild<?, ?> build, Collection<TestResult> testResults) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return before(build, testResults);
+		} finally {
+			ReportMetrics.record(metricName("before"), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Calls #each and records how long it took in ReportMetrics. Used by the report pages.
+	 */
+	public final boolean timedEach(AbstractBuild<?, ?> build, TestResult testResult) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return each(build, testResult);
+		} finally {
+			ReportMetrics.record(metricName("each"), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Calls #after and records how long it took in ReportMetrics. Used by the report pages.
+	 */
+	public final boolean timedAfter(AbstractBuild<?, ?> build, Collection<TestResult> testResults) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return after(build, testResults);
+		} finally {
+			ReportMetrics.record(metricName("after"), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Calls #includeFloat and records how long it took in ReportMetrics. Used by the test page.
+	 */
+	public final boolean timedIncludeFloat(AbstractBuild<?, ?> build, TestResult testResult) {
+		long start = System.nanoTime();
+		try {
+			return includeFloat(build, testResult);
+		} finally {
+			ReportMetrics.record(metricName("includeFloat"), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Identifies the settings this publisher renders with, so cached report fragments are rendered again when they change.
+	 * The default is the class and the value of every field that is neither static nor transient, which fits publishers whose settings
+	 * 	are the strings and numbers of their DataBoundConstructor. State kept between render calls must be transient,
+	 * 	or every render would look like a new configuration.
+	 */
+	public String getConfigurationKey() {
+		StringBuilder key = new StringBuilder(getClass().getName());
+		for (Class<?> type = getClass(); type != TestDataPublisher.class && type != null; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+					continue;
+				}
+				field.setAccessible(true);
+				Object value;
+				try {
+					value = field.get(this);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				key.append(';').append(field.getName()).append('=').append(value);
+			}
+		}
+		return key.toString();
+	}
+
+	private String metricName(String method) {
+		return "publisher." + getClass().getSimpleName() + "." + method;
+	}
+
 	public static DescriptorExtensionList<TestDataPublisher, Descriptor<TestDataPublisher>> all() {
 		return Jenkins.getInstance().<TestDataPublisher, Descriptor<TestDataPublisher>>getDescriptorList(TestDataPublisher.class);
 	}
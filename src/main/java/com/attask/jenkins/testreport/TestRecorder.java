@@ -1,6 +1,9 @@
 package com.attask.jenkins.testreport;
 
 import com.attask.jenkins.testreport.dynamicresults.DynamicTestResultsAction;
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import com.attask.jenkins.testreport.storage.ResultRetention;
+import com.attask.jenkins.testreport.storage.StackTraceStore;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
@@ -41,9 +44,12 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 	private final List<HighlightStyle> highlightStyle;
 	private transient final String url = "testReport";
 	private final DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>> testDataPublishers;
+	private final boolean storeAsDelta;
+	private final boolean deferEnrichment;
+	private final ResultRetention retention;
 
 	@DataBoundConstructor
-	public TestRecorder(List<HighlightStyle> highlightStyle, String resultsFilePattern, String uniquifier, DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>> testDataPublishers) {
+	public TestRecorder(List<HighlightStyle> highlightStyle, String resultsFilePattern, String uniquifier, DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>> testDataPublishers, boolean storeAsDelta, boolean deferEnrichment, ResultRetention retention) {
 		//This constructor isn't automatically bound. It's manually bound in the DescriptorImpl class
 		if (highlightStyle == null) {
 			this.highlightStyle = Collections.emptyList();
@@ -53,13 +59,19 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 		this.resultsFilePattern = resultsFilePattern;
 		this.uniquifier = uniquifier;
 		this.testDataPublishers = testDataPublishers;
+		this.storeAsDelta = storeAsDelta;
+		this.deferEnrichment = deferEnrichment;
+		this.retention = retention;
 	}
 
 	@Override
 	public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+		RecordingStats stats = new RecordingStats();
 		EnvVars environment = build.getEnvironment(listener);
 		String expandedResultsFilePattern = environment.expand(resultsFilePattern);
+		long scanStart = System.nanoTime();
 		String[] includedFiles = findResultsArtifacts(build, launcher, expandedResultsFilePattern, listener);
+		stats.addTime(RecordingStats.Phase.SCAN, System.nanoTime() - scanStart);
 		if(includedFiles == null || includedFiles.length <= 0) {
 			listener.getLogger().println("No files matched " + expandedResultsFilePattern + " in the workspace.");
 			return false;
@@ -68,11 +80,13 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 		FilePath workspace = build.getWorkspace();
 		String expandedUniquifier = environment.expand(uniquifier);
 		LinkedList<TestResult> results = new LinkedList<TestResult>();
+		List<Collection<TestResult>> resultsByFile = new ArrayList<Collection<TestResult>>(includedFiles.length);
 		for (String includedFile : includedFiles) {
 			listener.getLogger().println("Parsing: " + includedFile);
-			Collection<TestResult> testResults = TestResult.parse(this, new FilePath(workspace, includedFile), build, expandedUniquifier, url);
+			Collection<TestResult> testResults = TestResult.parse(this, new FilePath(workspace, includedFile), build, expandedUniquifier, url, stats, !deferEnrichment);
 			listener.getLogger().println("\t - contained " + testResults.size() + " results.");
 			results.addAll(testResults);
+			resultsByFile.add(testResults);
 		}
 
 		List<TestDataPublisher> testDataPublisherList = new ArrayList<TestDataPublisher>(testDataPublishers.size());
@@ -80,7 +94,22 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 			testDataPublisherList.add(testDataPublisher);
 		}
 
+		long internStart = System.nanoTime();
+		StackTraceStore.forJob(build.getParent()).intern(build.getNumber(), results);
+		stats.addTime(RecordingStats.Phase.STACK_TRACES, System.nanoTime() - internStart);
+
+		long storeStart = System.nanoTime();
 		TestResultAction resultAction = new TestResultAction(build, results, expandedUniquifier, url, testDataPublisherList);
+		resultAction.setTimeline(ThreadTimeline.create(resultsByFile));
+		if(deferEnrichment) {
+			resultAction.markEnrichmentPending();
+		}
+		resultAction.setDurationRegressions(DurationStatistics.forJob(build.getParent()).record(build.getNumber(), results));
+		resultAction.applyRetention(getRetention());
+		if(storeAsDelta) {
+			resultAction.storeAsDelta();
+		}
+		stats.addTime(RecordingStats.Phase.STORE, System.nanoTime() - storeStart);
 
 		if(resultAction.getFailCount() > 0) {
 			build.setResult(Result.UNSTABLE);
@@ -91,9 +120,27 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 			build.getActions().removeAll(oldTestResultActions);
 		}
 		build.addAction(resultAction);
+
+		long trendStart = System.nanoTime();
+		TestResultTrend.forJob(build.getParent()).record(build.getNumber(), resultAction);
+		FailureFirstOrder.forJob(build.getParent()).record(build.getNumber(), results, !deferEnrichment);
+		stats.addTime(RecordingStats.Phase.TREND, System.nanoTime() - trendStart);
+
+		if(deferEnrichment) {
+			AgeEnricher.schedule(resultAction);
+			listener.getLogger().println("Test ages will be computed in the background.");
+		}
+
+		stats.printTo(listener.getLogger());
+		stats.publish("recording");
 		return true;
 	}
 
+	@Override
+	public Action getProjectAction(AbstractProject<?, ?> project) {
+		return new TestResultProjectAction(project);
+	}
+
 	/**
 	 * Called by Jenkins. Used to aggregate Matrix results into one result.
 	 */
@@ -106,7 +153,7 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 				testDataPublisherList.add(testDataPublisher);
 			}
 		}
-		return new TestResultMatrixAggregator(build, launcher, listener, testDataPublisherList);
+		return new TestResultMatrixAggregator(build, launcher, listener, testDataPublisherList, storeAsDelta, deferEnrichment, getRetention());
 	}
 
 	private String[] findResultsArtifacts(AbstractBuild<?, ?> build, Launcher launcher, String resultsFilePattern, BuildListener listener) throws IOException, InterruptedException {
@@ -135,6 +182,24 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 		return url;
 	}
 
+	@Exported
+	public boolean isStoreAsDelta() {
+		return storeAsDelta;
+	}
+
+	@Exported
+	public boolean isDeferEnrichment() {
+		return deferEnrichment;
+	}
+
+	/**
+	 * @return ALL for jobs configured before retention modes existed.
+	 */
+	@Exported
+	public ResultRetention getRetention() {
+		return retention == null ? ResultRetention.ALL : retention;
+	}
+
 	@Exported
 	public List<HighlightStyle> getHighlightStyle() {
 		return highlightStyle;
@@ -175,6 +240,10 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 		public Publisher newInstance(StaplerRequest req, JSONObject formData) throws hudson.model.Descriptor.FormException {
 			String resultsFilePattern = formData.getString("resultsFilePattern");
 			String uniquifier = formData.getString("uniquifier");
+			// Results kept in build.xml are outside the ResultSetCache budget, so they have to be asked for.
+			boolean storeAsDelta = formData.optBoolean("storeAsDelta", true);
+			boolean deferEnrichment = formData.optBoolean("deferEnrichment");
+			ResultRetention retention = ResultRetention.valueOf(formData.optString("retention", ResultRetention.ALL.name()));
 
 			DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>> testDataPublishers = new DescribableList<TestDataPublisher, Descriptor<TestDataPublisher>>(Saveable.NOOP);
 			try {
@@ -204,7 +273,7 @@ public class TestRecorder extends Recorder implements MatrixAggregatable {
 				}
 			}
 
-			return new TestRecorder(highlightStyles, resultsFilePattern, uniquifier, testDataPublishers);
+			return new TestRecorder(highlightStyles, resultsFilePattern, uniquifier, testDataPublishers, storeAsDelta, deferEnrichment, retention);
 		}
 
 	}
@@ -1,5 +1,9 @@
 package com.attask.jenkins.testreport;
 
+import com.attask.jenkins.testreport.format.ResultFileV3Reader;
+import com.attask.jenkins.testreport.format.ResultRecord;
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import com.attask.jenkins.testreport.storage.StackTraceStore;
 import com.attask.jenkins.testreport.utils.RunUtils;
 import hudson.FilePath;
 import hudson.Util;
@@ -26,7 +30,11 @@ public class TestResult implements Comparable<TestResult> {
 	private final String threadId;
 	private final TestStatus status;
 	private final String runId;
-	private final String stackTrace;
+	/**
+	 * null once the stack trace has been moved into the job's StackTraceStore.
+	 */
+	private String stackTrace;
+	private String stackTraceKey;
 	private final int age;
 	private final String firstFailingBuildId;
 	private final String url;
@@ -102,14 +110,39 @@ public class TestResult implements Comparable<TestResult> {
 
 	@Exported
 	public String getStackTrace() {
+		if(stackTrace == null && stackTraceKey != null) {
+			return StackTraceStore.resolve(getRunId(), stackTraceKey);
+		}
+		return stackTrace;
+	}
+
+	/**
+	 * @return The stack trace if it's held on this result rather than in the StackTraceStore.
+	 */
+	public String getInlineStackTrace() {
 		return stackTrace;
 	}
 
+	/**
+	 * @return The StackTraceStore key of the stack trace, or null if it's held inline.
+	 */
+	public String getStackTraceKey() {
+		return stackTraceKey;
+	}
+
+	/**
+	 * Replaces the inline stack trace with a reference to the job's StackTraceStore.
+	 */
+	public void setStackTraceKey(String stackTraceKey) {
+		this.stackTraceKey = stackTraceKey;
+		this.stackTrace = null;
+	}
+
 	public String htmlifyStackTrace() {
 		Pattern pattern = Pattern.compile("((:?[\\$a-zA-Z0-9_]+\\.)+(:?[\\$a-zA-Z0-9_]+))\\((:?([\\$a-zA-Z0-9_]+)\\.[\\$a-zA-Z0-9_]+:(\\d+)|Unknown Source|Native Method)\\)");
 
 		StringBuilder sb = new StringBuilder();
-		String stackTrace = this.stackTrace;
+		String stackTrace = getStackTrace();
 		if ((stackTrace == null || stackTrace.trim().isEmpty()) && getStatus() != TestStatus.FINISHED) {
 			stackTrace = "This test should have run, but didn't. Check the full log for more information.";
 		}
@@ -133,6 +166,16 @@ public class TestResult implements Comparable<TestResult> {
 		return age;
 	}
 
+	/**
+	 * @return A copy of this result with the given age. Used to fill in ages that were computed after recording.
+	 */
+	public TestResult withAge(int age, String firstFailingBuildId) {
+		TestResult copy = new TestResult(name, time, threadId, status, runId, stackTrace, age, firstFailingBuildId, url, uniquifier);
+		copy.stackTraceKey = stackTraceKey;
+		copy.style = style;
+		return copy;
+	}
+
 	@Exported
 	public String getFirstFailingBuildId() {
 		return firstFailingBuildId;
@@ -149,36 +192,130 @@ public class TestResult implements Comparable<TestResult> {
 
 	@SuppressWarnings("UnusedDeclaration")
 	public String findFirstFailureUrl() {
-		String firstFailingBuildId = getFirstFailingBuildId();
-		if(firstFailingBuildId != null) {
-			if(firstFailingBuildId.contains("$$")) {
-				String matrixBuild = findMatrixBuildUrl(firstFailingBuildId);
-				if(matrixBuild != null) {
-					return matrixBuild;
-				}
+		Run firstFailingBuild = RunUtils.findRun(getFirstFailingBuildId());
+		if(firstFailingBuild != null) {
+			return firstFailingBuild.getUrl();
+		}
+		return null;
+	}
+
+	public static Collection<TestResult> parse(TestRecorder testRecorder, FilePath file, Run build, String uniqueId, String url) throws IOException, IllegalFormatException {
+		return parse(testRecorder, file, build, uniqueId, url, new RecordingStats(), true);
+	}
+
+	/**
+	 * Files of at least this many bytes are split into chunks that are parsed in parallel. 0 turns chunked parsing off.
+	 */
+	static final long CHUNKED_PARSE_THRESHOLD = Long.getLong(TestResult.class.getName() + ".chunkedParseThreshold", 64L * 1024 * 1024);
+
+	/**
+	 * @param stats Receives the time spent and the volume processed. The time spent in parse excludes the transfer, age walk and highlighting.
+	 * @param findAges If false, failures are given an age of 0 and no first failing build. They can be filled in later with #findAges.
+	 */
+	public static Collection<TestResult> parse(TestRecorder testRecorder, FilePath file, Run build, String uniqueId, String url, RecordingStats stats, boolean findAges) throws IOException, IllegalFormatException {
+		return parse(testRecorder, file, build, uniqueId, url, stats, findAges, false);
+	}
+
+	/**
+	 * Parses a results file in the v2 text or v3 binary format, or a JUnit XML report, compressed or not.
+	 * @param growing True if the file may still be being written. A compressed file is then read up to where its compressed data ends.
+	 * @see ResultFileReader#open
+	 */
+	public static Collection<TestResult> parse(TestRecorder testRecorder, FilePath file, Run build, String uniqueId, String url, RecordingStats stats, boolean findAges, boolean growing) throws IOException, IllegalFormatException {
+		long start = System.nanoTime();
+		long nestedBefore = stats.getTime(RecordingStats.Phase.AGE) + stats.getTime(RecordingStats.Phase.HIGHLIGHT);
+		// Linked so the results keep the order their final lines appear in the file, which ThreadTimeline relies on.
+		Map<TestResult, TestStatus> results = new LinkedHashMap<TestResult, TestStatus>();
+
+		ResultFileReader reader;
+		try {
+			long length = file.length();
+			// Compressed files can't be split into byte ranges, but they are also far smaller. v3 files don't need splitting.
+			if(CHUNKED_PARSE_THRESHOLD > 0 && length >= CHUNKED_PARSE_THRESHOLD && ResultFileReader.isSplittable(file)) {
+				return ChunkedResultParser.parse(testRecorder, file, build, uniqueId, url, stats, findAges);
 			}
-			Run<?, ?> firstFailingBuild = Run.fromExternalizableId(firstFailingBuildId);
-			if(firstFailingBuild != null) {
-				return firstFailingBuild.getUrl();
+			stats.add(RecordingStats.Counter.BYTES, length);
+			reader = ResultFileReader.open(file, growing);
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while reading " + file.getRemote(), e);
+		}
+		long transferTime;
+		try {
+			if(reader.isV3()) {
+				// v3 records are parsed as they stream in, so the transfer is counted as part of the parse.
+				transferTime = System.nanoTime() - start;
+				parseRecords(testRecorder, reader.readRecords(), build, uniqueId, url, stats, findAges, results);
+			} else if(reader.isJUnitXml()) {
+				// So is JUnit XML.
+				transferTime = System.nanoTime() - start;
+				JUnitXmlParser.parse(testRecorder, reader.getInputStream(), file, build, uniqueId, url, stats, findAges, growing, results);
+			} else {
+				List<String> fileLines = reader.readLines();
+				transferTime = System.nanoTime() - start;
+				stats.add(RecordingStats.Counter.LINES, fileLines.size());
+				parseLines(testRecorder, file, fileLines, 0, build, uniqueId, url, stats, findAges, results);
 			}
+		} finally {
+			reader.close();
 		}
-		return null;
+		stats.addTime(RecordingStats.Phase.TRANSFER, transferTime);
+		stats.add(RecordingStats.Counter.FILES, 1);
+
+		stats.add(RecordingStats.Counter.RESULTS, results.size());
+		long nestedTime = stats.getTime(RecordingStats.Phase.AGE) + stats.getTime(RecordingStats.Phase.HIGHLIGHT) - nestedBefore;
+		stats.addTime(RecordingStats.Phase.PARSE, System.nanoTime() - start - transferTime - nestedTime);
+		return results.keySet();
+	}
+
+	/**
+	 * Parses the records of an "AtTask Failures v3" file. Unlike v2 lines they need no probing: every record is one result.
+	 */
+	static void parseRecords(TestRecorder testRecorder, ResultFileV3Reader records, Run build, String uniqueId, String url, RecordingStats stats, boolean findAges, Map<TestResult, TestStatus> results) throws IOException {
+		parseRecords(testRecorder, records, build, RunUtils.getRealExternalizableId(build), uniqueId, url, stats, findAges, results);
 	}
 
-	private String findMatrixBuildUrl(String matrixId) {
-		Run run = RunUtils.findRun(matrixId);
-		if(run == null) {
-			return null;
+	/**
+	 * @param build Only used to find ages. May be null if findAges is false.
+	 * @param runId The id of the build, given to every result.
+	 */
+	static void parseRecords(TestRecorder testRecorder, ResultFileV3Reader records, Run build, String runId, String uniqueId, String url, RecordingStats stats, boolean findAges, Map<TestResult, TestStatus> results) throws IOException {
+		ResultRecord record;
+		while((record = records.next()) != null) {
+			String stackTrace = record.getStackTrace();
+			AgeStat ageStat = new AgeStat();
+			if(record.getStatus() == TestStatus.FAILED && findAges) {
+				long ageStart = System.nanoTime();
+				ageStat = findAge(record.getName(), build, uniqueId, stats);
+				stats.addTime(RecordingStats.Phase.AGE, System.nanoTime() - ageStart);
+			}
+			TestResult result = new TestResult(record.getName(), record.getDuration(), record.getThreadId(), record.getStatus(), runId, stackTrace, ageStat.age, ageStat.firstFailingBuild, url, uniqueId);
+			if (testRecorder != null) {
+				long highlightStart = System.nanoTime();
+				testRecorder.setIsCritical(result);
+				stats.addTime(RecordingStats.Phase.HIGHLIGHT, System.nanoTime() - highlightStart);
+			}
+			keepMoreInteresting(results, result);
 		}
-		return run.getUrl();
 	}
 
-	public static Collection<TestResult> parse(TestRecorder testRecorder, FilePath file, Run build, String uniqueId, String url) throws IOException, IllegalFormatException {
-		Map<TestResult, TestStatus> results = new HashMap<TestResult, TestStatus>();
+	/**
+	 * Parses a run of lines from a results file into results.
+	 * The lines must not end partway through a stack trace: the trace of the last failure is everything up to the end of the lines.
+	 * @param firstLine The line number of the first of the lines within the file. Line 0 must be the version header.
+	 */
+	static void parseLines(TestRecorder testRecorder, FilePath file, List<String> fileLines, int firstLine, Run build, String uniqueId, String url, RecordingStats stats, boolean findAges, Map<TestResult, TestStatus> results) {
+		parseLines(testRecorder, file, fileLines, firstLine, build, RunUtils.getRealExternalizableId(build), uniqueId, url, stats, findAges, results);
+	}
 
-		List<String> fileLines = Arrays.asList(file.readToString().split("\r?\n"));
-		for (int lineNumber = 0; lineNumber < fileLines.size(); lineNumber++) {
-			String line = fileLines.get(lineNumber);
+	/**
+	 * @param build Only used to find ages. May be null if findAges is false.
+	 * @param runId The id of the build, given to every result.
+	 */
+	static void parseLines(TestRecorder testRecorder, FilePath file, List<String> fileLines, int firstLine, Run build, String runId, String uniqueId, String url, RecordingStats stats, boolean findAges, Map<TestResult, TestStatus> results) {
+		ResultLineTokenizer tokenizer = new ResultLineTokenizer();
+		for (int index = 0; index < fileLines.size(); index++) {
+			String line = fileLines.get(index);
+			int lineNumber = firstLine + index;
 			if(lineNumber == 0) {
 				if(!line.equals("AtTask Failures v2")) {
 					throw new IllegalFailureFileFormatException(file, lineNumber, "Unsupported file version: " + line);
@@ -186,48 +323,41 @@ public class TestResult implements Comparable<TestResult> {
 				continue;
 			}
 
-			int firstWhitespaceIndex = line.indexOf(" ");
-			if(firstWhitespaceIndex < 0) {
+			if(!tokenizer.tokenize(line)) {
 				continue;
 			}
 
-			String statusString = line.substring(0, firstWhitespaceIndex);
-			String token = line.substring(firstWhitespaceIndex+1);
-
-			TestStatus testStatus;
-			try {
-				testStatus = TestStatus.valueOf(statusString.toUpperCase());
-			} catch(IllegalArgumentException e) {
-				throw new IllegalFailureFileFormatException(file, lineNumber, "Line status token invalid. '" + statusString + "'");
+			TestStatus testStatus = tokenizer.getStatus();
+			if(testStatus == null) {
+				throw new IllegalFailureFileFormatException(file, lineNumber, "Line status token invalid. '" + tokenizer.getStatusToken() + "'");
 			}
 
 			TestResult result;
 			switch (testStatus) {
 				case ADDED:
 				case STARTED:
-					result = parseSimple(testStatus, token, build, url, uniqueId);
+					result = parseSimple(testStatus, tokenizer, runId, url, uniqueId);
 					break;
 				case FINISHED:
 				case SKIPPED:
-					result = parseSimplePlusMetadata(file, lineNumber, testStatus, token, build, url, uniqueId);
+					result = parseSimplePlusMetadata(file, lineNumber, testStatus, tokenizer, runId, url, uniqueId);
 					break;
 				case FAILED:
-					String[] tokenizedLine = token.split("\\s");
-					String name = tokenizedLine[0];
+					String name = tokenizer.getName();
 					String threadId;
-					if (tokenizedLine.length > 1) {
-						threadId = tokenizedLine[1];
+					if (tokenizer.hasThreadId()) {
+						threadId = tokenizer.getThreadId();
 					} else {
 						throw new IllegalFailureFileFormatException(file, lineNumber, "Missing Thread ID");
 					}
 					long runTime;
-					if (tokenizedLine.length > 2) {
+					if (tokenizer.hasRunTime()) {
 						try {
-							runTime = Long.parseLong(tokenizedLine[2]);
+							runTime = tokenizer.getRunTime();
 						}
 						catch (NumberFormatException e) {
 							runTime = -1;
-							log.warning("Error parsing " + tokenizedLine[2] + " as long");
+							log.warning("Error parsing " + tokenizer.getRunTimeToken() + " as long");
 						}
 					}
 					else {
@@ -235,28 +365,42 @@ public class TestResult implements Comparable<TestResult> {
 						log.warning("No runtime in file: " + file.getRemote());
 					}
 
-					AgeStat ageStat = findAge(name, build, uniqueId);
+					AgeStat ageStat;
+					if(findAges) {
+						long ageStart = System.nanoTime();
+						ageStat = findAge(name, build, uniqueId, stats);
+						stats.addTime(RecordingStats.Phase.AGE, System.nanoTime() - ageStart);
+					} else {
+						ageStat = new AgeStat();
+					}
 					StringBuilder stackTrace = new StringBuilder();
-					int linesToAdvance = readStackTrace(fileLines, lineNumber, stackTrace);
-					lineNumber += linesToAdvance;
+					int linesToAdvance = readStackTrace(fileLines, index, stackTrace);
+					index += linesToAdvance;
 
-					result = new TestResult(name, runTime, threadId, testStatus, RunUtils.getRealExternalizableId(build), stackTrace.toString(), ageStat.age, ageStat.firstFailingBuild, url, uniqueId);
+					result = new TestResult(name, runTime, threadId, testStatus, runId, stackTrace.toString(), ageStat.age, ageStat.firstFailingBuild, url, uniqueId);
 					break;
 				default:
 					throw new IllegalFailureFileFormatException(file, lineNumber, "Status not implemented: " + testStatus);
 			}
 			if (testRecorder != null) {
+				long highlightStart = System.nanoTime();
 				testRecorder.setIsCritical(result);
+				stats.addTime(RecordingStats.Phase.HIGHLIGHT, System.nanoTime() - highlightStart);
 			}
 
-			TestStatus oldStatus = results.get(result);
-			if(oldStatus == null || result.getStatus().isMoreInterestingThan(oldStatus)) {
-				results.remove(result);
-				results.put(result, result.getStatus());
-			}
+			keepMoreInteresting(results, result);
 		}
+	}
 
-		return results.keySet();
+	/**
+	 * A test can appear several times in a file (started, then finished). The most interesting status wins, and the first of equals.
+	 */
+	static void keepMoreInteresting(Map<TestResult, TestStatus> results, TestResult result) {
+		TestStatus oldStatus = results.get(result);
+		if(oldStatus == null || result.getStatus().isMoreInterestingThan(oldStatus)) {
+			results.remove(result);
+			results.put(result, result.getStatus());
+		}
 	}
 
 	private static int readStackTrace(List<String> file, int currentPosition, StringBuilder sb) {
@@ -272,44 +416,69 @@ public class TestResult implements Comparable<TestResult> {
 		return count;
 	}
 
-	private static TestResult parseSimple(TestStatus status, String token, Run build, String url, String uniquifier) {
-		return new TestResult(token.trim(), -1, null, status, RunUtils.getRealExternalizableId(build), null, 0, null, url, uniquifier);
+	private static TestResult parseSimple(TestStatus status, ResultLineTokenizer tokenizer, String runId, String url, String uniquifier) {
+		return new TestResult(tokenizer.getTrimmedRest(), -1, null, status, runId, null, 0, null, url, uniquifier);
 	}
 
-	private static TestResult parseSimplePlusMetadata(FilePath file, int lineNumber, TestStatus status, String token, Run build, String url, String uniquifier) {
-		String[] split = token.split("\\s");
-		String name = split[0];
+	private static TestResult parseSimplePlusMetadata(FilePath file, int lineNumber, TestStatus status, ResultLineTokenizer tokenizer, String runId, String url, String uniquifier) {
+		String name = tokenizer.getName();
 		String threadId;
-		if (split.length > 1) {
-			threadId = split[1];
+		if (tokenizer.hasThreadId()) {
+			threadId = tokenizer.getThreadId();
 		} else {
 			throw new IllegalFailureFileFormatException(file, lineNumber, "Missing Thread ID");
 		}
-		int runTime;
-		if (split.length > 2) {
-			runTime = Integer.parseInt(split[2]);
+		long runTime;
+		if (tokenizer.hasRunTime()) {
+			runTime = tokenizer.getRunTime();
 		} else {
 			throw new IllegalFailureFileFormatException(file, lineNumber, "Missing Runtime");
 		}
-		return new TestResult(name, runTime, threadId, status, RunUtils.getRealExternalizableId(build), null, 0, null, url, uniquifier);
+		return new TestResult(name, runTime, threadId, status, runId, null, 0, null, url, uniquifier);
+	}
+
+	/**
+	 * Computes the age and first failing build of every failure that was parsed without them.
+	 * @return The results, with the failures replaced by copies that have their age.
+	 */
+	public static List<TestResult> findAges(Collection<TestResult> results, Run build, String uniqueId, RecordingStats stats) {
+		List<TestResult> enriched = new ArrayList<TestResult>(results.size());
+		for (TestResult result : results) {
+			if(result.getStatus() == TestStatus.FAILED) {
+				long ageStart = System.nanoTime();
+				AgeStat ageStat = findAge(result.getName(), build, uniqueId, stats);
+				stats.addTime(RecordingStats.Phase.AGE, System.nanoTime() - ageStart);
+				enriched.add(result.withAge(ageStat.age, ageStat.firstFailingBuild));
+			} else {
+				enriched.add(result);
+			}
+		}
+		return enriched;
 	}
 
 	/**
 	 * TODO: Optimize if needed. If we need to optimize: we should be finding the age in groups so we don't have to iterate all the builds multiple times.
 	 */
-	private static AgeStat findAge(String testName, Run build, String uniqueId) {
+	private static AgeStat findAge(String testName, Run build, String uniqueId, RecordingStats stats) {
 		assert uniqueId != null : "null uniqueId";
 		AgeStat ageStat = new AgeStat();
 		ageStat.age = 1;
 		ageStat.firstFailingBuild = RunUtils.getRealExternalizableId(build);
 		while((build = build.getPreviousBuild()) != null) {
+			stats.add(RecordingStats.Counter.AGE_BUILDS_VISITED, 1);
 			TestResultAction testResultAction = build.getAction(TestResultAction.class);
 			if(testResultAction != null) {
-				if(uniqueId.equals(testResultAction.getUniquifier())) {
-					TestResult oldTestResult = testResultAction.getTestResults().get(testName);
+				// If the test definitely isn't in the build, there's no reason to load its results just to find that out.
+				if(uniqueId.equals(testResultAction.getUniquifier()) && testResultAction.mightContain(testName)) {
+					TestResult oldTestResult = testResultAction.findResult(testName);
+					if(oldTestResult == null && testResultAction.mightHavePassed(testName)) {
+						// Either it passed, which only the count remembers, or the status filter matched by chance.
+						// Stopping here would report a pass the build may not have had, so treat it as unknown and keep walking.
+						continue;
+					}
 					if(oldTestResult != null) {
 						TestStatus oldStatus = oldTestResult.getStatus();
-						if(oldStatus == TestStatus.FAILED) {
+						if(oldStatus == TestStatus.FAILED && !testResultAction.isEnrichmentPending()) {
 							// FAILED tests should always have an accurate count. So just add that to our running total and return.
 							ageStat.age += oldTestResult.getAge();
 							ageStat.firstFailingBuild = oldTestResult.getFirstFailingBuildId();
@@ -317,8 +486,9 @@ public class TestResult implements Comparable<TestResult> {
 								ageStat.firstFailingBuild = oldTestResult.getRunId();
 							}
 							return ageStat;
-						} else if(oldStatus == TestStatus.STARTED || oldStatus == TestStatus.ADDED) {
+						} else if(oldStatus == TestStatus.FAILED || oldStatus == TestStatus.STARTED || oldStatus == TestStatus.ADDED) {
 							//age isn't calculated on STARTED or ADDED to save time, but we include them in our age, so we should add here, and then continue counting.
+							//The same goes for failures whose age is still being computed in the background.
 							ageStat.age++;
 							ageStat.firstFailingBuild = oldTestResult.getRunId();
 						} else {
@@ -331,13 +501,8 @@ public class TestResult implements Comparable<TestResult> {
 		return ageStat;
 	}
 
-	private static boolean checkIsTestLine(String line) {
-		for (TestStatus testStatus : TestStatus.values()) {
-			if(line.startsWith(testStatus.toString().toLowerCase() + " ")) {
-				return true;
-			}
-		}
-		return false;
+	static boolean checkIsTestLine(String line) {
+		return ResultLineTokenizer.testLineStatus(line) != null;
 	}
 
 	@Override
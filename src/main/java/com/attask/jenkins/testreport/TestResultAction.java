@@ -1,20 +1,34 @@
 package com.attask.jenkins.testreport;
 
+import com.attask.jenkins.testreport.metrics.ReportMetrics;
+import com.attask.jenkins.testreport.storage.DeltaResultStorage;
+import com.attask.jenkins.testreport.storage.FragmentCache;
+import com.attask.jenkins.testreport.storage.ResultSetCache;
+import com.attask.jenkins.testreport.storage.ResultRetention;
+import com.attask.jenkins.testreport.storage.ResultStorage;
+import com.attask.jenkins.testreport.utils.BloomFilter;
 import com.attask.jenkins.testreport.utils.RunUtils;
-import hudson.matrix.MatrixBuild;
-import hudson.matrix.MatrixRun;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.RunAction;
 import hudson.tasks.test.AbstractTestResultAction;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * User: Joel Johnson
@@ -22,17 +36,107 @@ import java.util.*;
  * Time: 2:06 PM
  */
 @ExportedBean
-public class TestResultAction extends AbstractTestResultAction {
+public class TestResultAction extends AbstractTestResultAction implements RunAction {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final double STATUS_FILTER_FALSE_POSITIVE_RATE = 0.01;
+	/**
+	 * How many rows of the All Results table allTestsRows renders per request unless asked for fewer.
+	 * Bounds what the server buffers per request, however many tests the build has.
+	 */
+	private static final int ROWS_PER_REQUEST = 500;
+	private static final int MAX_ROWS_PER_REQUEST = 2000;
+
+	/**
+	 * The build's ThreadTimeline. Kept out of build.xml since it names every test that ran, passed or not.
+	 */
+	public static final String TIMELINE_FILE = "testReportTimeline.bin.gz";
+
 	private final String buildId;
-	private final Map<String, TestResult> testResults;
-	private final Map<TestStatus, List<TestResult>> testResultByStatus;
+
+	/**
+	 * Only set when the results are stored INLINE. Otherwise the results are loaded on demand into the ResultSetCache.
+	 */
+	private Map<String, TestResult> testResults;
+	private Map<TestStatus, List<TestResult>> testResultByStatus;
+
+	/**
+	 * null for builds recorded before storage modes existed, which are all INLINE.
+	 */
+	private ResultStorage storage;
+
+	/**
+	 * null for builds recorded before retention modes existed, which kept every result.
+	 */
+	private ResultRetention retention;
+
+	/**
+	 * Only set with PASSED_AS_NAMES retention. The passed tests, which aren't in testResults.
+	 */
+	private PassedResults passedResults;
+
+	/**
+	 * The number of results of each status, indexed by TestStatus ordinal.
+	 * Set whenever the results aren't stored inline or passed tests aren't kept in full, so the counts don't require loading the results
+	 * 	and stay exact.
+	 */
+	private int[] statusCounts;
+
+	/**
+	 * INLINE results, or DELTA results until they are stored. Stored DELTA results are only held by the ResultSetCache,
+	 * 	so they count against its budget rather than staying in memory for as long as Jenkins keeps the build.
+	 */
+	private transient volatile TestResultSet loadedResults;
+
+	/**
+	 * With PASSED_AS_NAMES retention, the full results merged with the passed names, for the results they were merged from.
+	 * Soft so it doesn't keep results the ResultSetCache has evicted.
+	 */
+	private transient volatile SoftReference<MergedResults> mergedResults;
 
 	private final String uniquifier;
 	private final String urlName;
 
 	private List<TestDataPublisher> testDataPublishers;
 
+	/**
+	 * Only set on matrix parent builds. Holds the per-axis status and time of every test.
+	 */
+	private final MatrixTestResults matrixResults;
+
+	/**
+	 * What each test thread was doing, for builds recorded before it moved to TIMELINE_FILE.
+	 */
+	private ThreadTimeline timeline;
+
+	/**
+	 * The parallel efficiency of the timeline in TIMELINE_FILE, so the report can show it without reading the file.
+	 * null if there is no such file: for builds without thread information, builds recorded before it existed, and matrix parents.
+	 */
+	private Long timelineEfficiencyPercent;
+
+	private transient volatile SoftReference<ThreadTimeline> loadedTimeline;
+
+	/**
+	 * Tests that took much longer than their baseline. null for builds recorded before it existed.
+	 */
+	private List<DurationRegression> durationRegressions;
+
+	/**
+	 * Every test name, prefixed with the kind of status it had (see #statusKey), so history walks can tell whether a test
+	 * 	could have failed in this build without loading the results. null for builds recorded before it existed.
+	 */
+	private BloomFilter statusFilter;
+
+	/**
+	 * True while the ages of the failures are being computed in the background by AgeEnricher.
+	 */
+	private boolean enrichmentPending;
+
 	public TestResultAction(AbstractBuild<?, ?> build, Collection<TestResult> testResults, String uniquifier, String url, List<TestDataPublisher> testDataPublishers) {
+		this(build, testResults, uniquifier, url, testDataPublishers, null);
+	}
+
+	public TestResultAction(AbstractBuild<?, ?> build, Collection<TestResult> testResults, String uniquifier, String url, List<TestDataPublisher> testDataPublishers, MatrixTestResults matrixResults) {
 		super(build);
 		if(build == null) {
 			throw new NullPointerException("build");
@@ -45,57 +149,325 @@ public class TestResultAction extends AbstractTestResultAction {
 		}
 
 		this.buildId = RunUtils.getRealExternalizableId(build);
-		this.testResults = new HashMap<String, TestResult>(testResults.size());
-		this.testResultByStatus = new HashMap<TestStatus, List<TestResult>>();
+		this.loadedResults = new TestResultSet(testResults);
+		this.testResults = loadedResults.getStoredByName();
+		this.testResultByStatus = loadedResults.getStoredByStatus();
+		this.storage = ResultStorage.INLINE;
+		this.uniquifier = uniquifier;
+		this.urlName = url;
+		this.testDataPublishers = testDataPublishers;
+		this.matrixResults = matrixResults;
+		this.statusFilter = createStatusFilter(testResults);
+	}
+
+	private static BloomFilter createStatusFilter(Collection<TestResult> testResults) {
+		BloomFilter filter = BloomFilter.create(testResults.size(), STATUS_FILTER_FALSE_POSITIVE_RATE);
 		for (TestResult testResult : testResults) {
-			this.testResults.put(testResult.getName(), testResult);
+			filter.add(statusKey(testResult.getStatus(), testResult.getName()));
+		}
+		return filter;
+	}
 
-			List<TestResult> testResultList = this.testResultByStatus.get(testResult.getStatus());
-			if(testResultList == null) {
-				testResultList = new ArrayList<TestResult>();
-				this.testResultByStatus.put(testResult.getStatus(), testResultList);
-			}
-			testResultList.add(testResult);
+	/**
+	 * Statuses that history walks treat the same way share a key: failed, not run (added or started) and passed (finished or skipped).
+	 */
+	private static String statusKey(TestStatus status, String testName) {
+		switch (status) {
+			case FAILED:
+				return "F:" + testName;
+			case ADDED:
+			case STARTED:
+				return "N:" + testName;
+			default:
+				return "P:" + testName;
 		}
-		for (List<TestResult> results : this.testResultByStatus.values()) {
-			Collections.sort(results);
+	}
+
+	/**
+	 * Answers without loading the results, so history walks can skip builds cheaply.
+	 * @return false if the test definitely didn't have the given status in this build.
+	 * 	Statuses are grouped as in #statusKey, so asking about ADDED also matches STARTED and FINISHED also matches SKIPPED.
+	 */
+	public boolean mightHaveStatus(String testName, TestStatus status) {
+		return statusFilter == null || statusFilter.mightContain(statusKey(status, testName));
+	}
+
+	/**
+	 * @return false if the test definitely isn't in this build's results.
+	 */
+	public boolean mightContain(String testName) {
+		return mightHaveStatus(testName, TestStatus.FAILED) || mightHaveStatus(testName, TestStatus.ADDED) || mightHaveStatus(testName, TestStatus.FINISHED);
+	}
+
+	/**
+	 * Moves the results out of build.xml and into DeltaResultStorage.
+	 * Must be called before the build is saved.
+	 */
+	public synchronized void storeAsDelta() throws IOException {
+		Run build = findBuild();
+		if(build == null) {
+			throw new IOException("There was no run for id: " + buildId);
 		}
-		this.uniquifier = uniquifier;
-		this.urlName = url;
-		this.testDataPublishers = testDataPublishers;
+		TestResultSet results = results();
+		DeltaResultStorage.store(build, results.getByName().values());
+
+		if(statusCounts == null) {
+			this.statusCounts = countStatuses(results);
+		}
+		this.storage = ResultStorage.DELTA;
+		this.testResults = null;
+		this.testResultByStatus = null;
+		ResultSetCache.getInstance().put(buildId, results);
+		this.loadedResults = null;
+	}
+
+	/**
+	 * Writes the timeline to TIMELINE_FILE in the build's directory.
+	 * Must be called before the build is saved.
+	 */
+	public void setTimeline(ThreadTimeline timeline) throws IOException {
+		if(timeline == null) {
+			return;
+		}
+		Run build = findBuild();
+		if(build == null) {
+			throw new IOException("There was no run for id: " + buildId);
+		}
+		timeline.write(new File(build.getRootDir(), TIMELINE_FILE));
+		this.timelineEfficiencyPercent = timeline.getParallelEfficiencyPercent();
+		this.loadedTimeline = new SoftReference<ThreadTimeline>(timeline);
 	}
 
+	/**
+	 * @return The timeline, read from TIMELINE_FILE the first time it's needed, or null if the build has none.
+	 */
+	@SuppressWarnings("UnusedDeclaration") //used in timeline.jelly
+	public ThreadTimeline getTimeline() {
+		if(timeline != null || timelineEfficiencyPercent == null) {
+			return timeline;
+		}
+		SoftReference<ThreadTimeline> reference = loadedTimeline;
+		ThreadTimeline loaded = reference == null ? null : reference.get();
+		if(loaded == null) {
+			Run build = findBuild();
+			if(build == null) {
+				return null;
+			}
+			File file = new File(build.getRootDir(), TIMELINE_FILE);
+			try {
+				loaded = ThreadTimeline.read(file);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't read the thread timeline " + file, e);
+				return null;
+			}
+			loadedTimeline = new SoftReference<ThreadTimeline>(loaded);
+		}
+		return loaded;
+	}
+
+	/**
+	 * @return The timeline's parallel efficiency, or null if the build has no timeline.
+	 */
 	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
-	public Run findBuild() {
-		if(buildId.contains("$$")) {
-			String[] ids = buildId.split("\\$\\$", 2);
-			if(ids.length == 2) {
-				String parentMatrixId = ids[0];
-				String childMatrixId = ids[1];
-
-				Run<?, ?> run = Run.fromExternalizableId(parentMatrixId);
-				if(run != null) {
-					if(run instanceof MatrixBuild) {
-						List<MatrixRun> runs = ((MatrixBuild) run).getRuns();
-						for (MatrixRun matrixRun : runs) {
-							if(matrixRun.getExternalizableId().equals(childMatrixId)) {
-								return matrixRun;
-							}
-						}
+	public Long getTimelineEfficiencyPercent() {
+		return timeline != null ? Long.valueOf(timeline.getParallelEfficiencyPercent()) : timelineEfficiencyPercent;
+	}
+
+	/**
+	 * Must be called before the build is saved.
+	 */
+	public void setDurationRegressions(List<DurationRegression> durationRegressions) {
+		this.durationRegressions = durationRegressions;
+	}
+
+	/**
+	 * @return The slowest regressions first.
+	 */
+	@Exported
+	public List<DurationRegression> getDurationRegressions() {
+		return durationRegressions == null ? Collections.<DurationRegression>emptyList() : durationRegressions;
+	}
+
+	/**
+	 * Marks the failures as not having their ages yet. Must be called before the build is saved,
+	 * 	so the enrichment is picked up again if Jenkins restarts before it finishes.
+	 */
+	public void markEnrichmentPending() {
+		this.enrichmentPending = true;
+	}
+
+	@Exported
+	public boolean isEnrichmentPending() {
+		return enrichmentPending;
+	}
+
+	/**
+	 * Swaps in the results with their ages filled in. Readers see either the old results or the new ones, never a mix.
+	 */
+	public synchronized void completeEnrichment(Collection<TestResult> enrichedResults) throws IOException {
+		TestResultSet enriched = new TestResultSet(enrichedResults);
+		if(getStorage() == ResultStorage.DELTA) {
+			Run build = findBuild();
+			if(build == null) {
+				throw new IOException("There was no run for id: " + buildId);
+			}
+			DeltaResultStorage.rewrite(build, enriched.getByName().values());
+			ResultSetCache.getInstance().put(buildId, enriched);
+		} else {
+			this.testResults = enriched.getStoredByName();
+			this.testResultByStatus = enriched.getStoredByStatus();
+			this.loadedResults = enriched;
+		}
+		this.enrichmentPending = false;
+	}
+
+	public void onLoad() {
+		if(enrichmentPending) {
+			AgeEnricher.schedule(this);
+		}
+	}
+
+	public void onAttached(Run run) {
+	}
+
+	public void onBuildComplete() {
+	}
+
+	/**
+	 * Drops the full records of passed tests. The counts stay exact.
+	 * Must be called before #storeAsDelta and before the build is saved.
+	 */
+	public synchronized void applyRetention(ResultRetention retention) {
+		if(retention == null || retention == ResultRetention.ALL) {
+			return;
+		}
+		TestResultSet results = results();
+		this.statusCounts = countStatuses(results);
+
+		List<TestResult> passed = results.get(TestStatus.FINISHED);
+		if(retention == ResultRetention.PASSED_AS_NAMES) {
+			this.passedResults = PassedResults.create(passed == null ? Collections.<TestResult>emptyList() : passed);
+		}
+
+		List<TestResult> kept = new ArrayList<TestResult>(results.size() - (passed == null ? 0 : passed.size()));
+		for (TestResult result : results.getByName().values()) {
+			if(result.getStatus() != TestStatus.FINISHED) {
+				kept.add(result);
+			}
+		}
+		TestResultSet retained = new TestResultSet(kept);
+		if(getStorage() == ResultStorage.INLINE) {
+			this.testResults = retained.getStoredByName();
+			this.testResultByStatus = retained.getStoredByStatus();
+		}
+		this.loadedResults = retained;
+		this.retention = retention;
+	}
+
+	public ResultRetention getRetention() {
+		return retention == null ? ResultRetention.ALL : retention;
+	}
+
+	private static int[] countStatuses(TestResultSet results) {
+		int[] counts = new int[TestStatus.values().length];
+		for (TestStatus status : TestStatus.values()) {
+			counts[status.ordinal()] = results.count(status);
+		}
+		return counts;
+	}
+
+	/**
+	 * Looks the test up in the full results and then, depending on the retention, among the passed tests.
+	 * Use this rather than getTestResults().get(name), which doesn't include passed tests that weren't kept in full.
+	 * @return The result, or null if the test isn't known to be in this build.
+	 * 	With PASSED_AS_COUNT retention passed tests aren't known at all, so they are null too. See #mightHavePassed.
+	 */
+	public TestResult findResult(String name) {
+		TestResult result = getTestResults().get(name);
+		if(result != null) {
+			return result;
+		}
+		if(getRetention() == ResultRetention.PASSED_AS_NAMES) {
+			return passedResults == null ? null : passedResults.find(name, buildId, urlName, uniquifier);
+		}
+		return null;
+	}
+
+	/**
+	 * For history walks over builds with PASSED_AS_COUNT retention, where findResult can't tell a passed test from a missing one.
+	 * @return true if findResult has nothing for the test, but the status filter says it might have passed.
+	 * 	The filter has false positives, so this is a guess rather than a result.
+	 */
+	public boolean mightHavePassed(String name) {
+		return getRetention() == ResultRetention.PASSED_AS_COUNT && !getTestResults().containsKey(name) && mightHaveStatus(name, TestStatus.FINISHED);
+	}
+
+	public ResultStorage getStorage() {
+		return storage == null ? ResultStorage.INLINE : storage;
+	}
+
+	private TestResultSet results() {
+		TestResultSet results = loadedResults;
+		if(results != null) {
+			return results;
+		}
+		if(getStorage() == ResultStorage.DELTA) {
+			try {
+				return ResultSetCache.getInstance().get(buildId, new ResultSetCache.Loader() {
+					public TestResultSet load() throws IOException {
+						return loadDeltaResults();
 					}
-				}
+				});
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Couldn't load the test results of " + buildId, e);
+				return new TestResultSet(Collections.<TestResult>emptyList());
+			}
+		}
+		synchronized (this) {
+			results = loadedResults;
+			if(results == null) {
+				results = new TestResultSet(testResults, testResultByStatus);
+				loadedResults = results;
 			}
 		}
-		return Run.fromExternalizableId(buildId);
+		return results;
+	}
+
+	private TestResultSet loadDeltaResults() throws IOException {
+		Run build = findBuild();
+		if(build == null) {
+			// Not an error worth a stack trace: the build is usually being deleted. An empty set is cached until it is.
+			log.warning("No run for id: " + buildId);
+			return new TestResultSet(Collections.<TestResult>emptyList());
+		}
+		return new TestResultSet(DeltaResultStorage.load(build));
+	}
+
+	private int count(TestStatus status) {
+		if(statusCounts != null) {
+			return statusCounts[status.ordinal()];
+		}
+		return results().count(status);
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public Run findBuild() {
+		return RunUtils.findRun(buildId);
 	}
 
 	public void doGetStackTrace(StaplerRequest request, StaplerResponse response) throws IOException {
+		long start = System.nanoTime();
 		String name = request.getParameter("name");
-		TestResult testResult = testResults.get(name);
-		ServletOutputStream outputStream = response.getOutputStream();
-		String stackTrace = testResult.htmlifyStackTrace();
-		outputStream.print(stackTrace);
-		outputStream.flush();
+		TestResult testResult = findResult(name);
+		if(testResult == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No test named " + name);
+			return;
+		}
+		response.setContentType("text/html;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		writer.print(testResult.htmlifyStackTrace());
+		writer.flush();
+		ReportMetrics.record("render.getStackTrace", System.nanoTime() - start);
 	}
 
 	public String findStatusUrl(Run build) {
@@ -117,65 +489,211 @@ public class TestResultAction extends AbstractTestResultAction {
 
 	@Exported
 	public Map<String, TestResult> getTestResults() {
-		return testResults;
+		return results().getByName();
 	}
 
+	/**
+	 * @return The failed, not run and not finished tests. Shared by every caller, so it can't be modified.
+	 */
 	@Exported
 	public List<TestResult> getFailures() {
-		List<TestResult> allFailures = new ArrayList<TestResult>();
+		return results().getFailures();
+	}
+
+	public int getAddedSize() {
+		return count(TestStatus.ADDED);
+	}
 
-		List<TestResult> failures = testResultByStatus.get(TestStatus.FAILED);
-		if(failures != null) {
-			allFailures.addAll(failures);
+	public int getFinishedSize() {
+		return count(TestStatus.FINISHED);
+	}
+
+	public int getStartedSize() {
+		return count(TestStatus.STARTED);
+	}
+
+	/**
+	 * @return Every result, sorted by name. Shared by every caller, so it can't be modified.
+	 * 	With PASSED_AS_NAMES retention the passed tests are merged in on each call, since they aren't kept as results.
+	 */
+	public List<TestResult> findAllResults() {
+		TestResultSet results = results();
+		if(passedResults == null) {
+			return results.getSortedByName();
 		}
+		SoftReference<MergedResults> reference = mergedResults;
+		MergedResults merged = reference == null ? null : reference.get();
+		if(merged == null || merged.source != results) {
+			merged = new MergedResults(results, mergeByName(results.getSortedByName(), passedResults.toResults(buildId, urlName, uniquifier)));
+			mergedResults = new SoftReference<MergedResults>(merged);
+		}
+		return merged.results;
+	}
+
+	private static class MergedResults {
+		private final TestResultSet source;
+		private final List<TestResult> results;
 
-		List<TestResult> addedTests = testResultByStatus.get(TestStatus.ADDED);
-		if (addedTests != null) {
-			allFailures.addAll(addedTests);
+		MergedResults(TestResultSet source, List<TestResult> results) {
+			this.source = source;
+			this.results = results;
 		}
+	}
+
+	/**
+	 * One chunk of #findAllResults, for rows.jelly.
+	 * @param start The index of the first result. Defaults to 0.
+	 * @param count How many results to return at most. Defaults to ROWS_PER_REQUEST and is capped so one request can't render everything.
+	 * @return A view of the results, empty past the end.
+	 */
+	public List<TestResult> findResultRange(String start, String count) {
+		List<TestResult> results = findAllResults();
+		int from = Math.min(parseNonNegative(start, 0), results.size());
+		int length = Math.min(parseNonNegative(count, ROWS_PER_REQUEST), MAX_ROWS_PER_REQUEST);
+		return results.subList(from, (int) Math.min((long) from + length, results.size()));
+	}
 
-		List<TestResult> startedTests = testResultByStatus.get(TestStatus.STARTED);
-		if (startedTests != null) {
-			allFailures.addAll(startedTests);
+	private static int parseNonNegative(String value, int defaultValue) {
+		if(value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(0, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return defaultValue;
 		}
+	}
 
-		return allFailures;
+	/**
+	 * Answers a ResultQuery with JSON, so dashboards can ask for the few results and fields they show instead of all of api/json.
+	 * See ResultQuery for the parameters.
+	 */
+	public void doQuery(StaplerRequest request, StaplerResponse response) throws IOException {
+		long start = System.nanoTime();
+		ResultQuery query;
+		try {
+			query = ResultQuery.fromRequest(request);
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		response.setContentType("application/json;charset=UTF-8");
+		response.getWriter().print(query.run(this).toString());
+		ReportMetrics.record("render.query", System.nanoTime() - start);
 	}
 
-	public int getAddedSize() {
-		if(testResultByStatus.get(TestStatus.ADDED) != null) {
-			return testResultByStatus.get(TestStatus.ADDED).size();
-		} else {
-			return 0;
+	/**
+	 * Serves one chunk of the All Results table for resultPage.js, from the FragmentCache if the build allows it.
+	 * Only the chunks resultPage.js asks for are cached, so arbitrary start and count parameters can't fill the cache.
+	 */
+	public void doAllTestsRows(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+		int start = parseNonNegative(request.getParameter("start"), 0);
+		int count = Math.min(parseNonNegative(request.getParameter("count"), ROWS_PER_REQUEST), MAX_ROWS_PER_REQUEST);
+		boolean aligned = count == ROWS_PER_REQUEST && start % ROWS_PER_REQUEST == 0 && start < getTotalCount();
+		Run build = aligned ? findCacheableBuild() : null;
+		if(build == null) {
+			request.getView(this, "rows.jelly").forward(request, response);
+			return;
 		}
+		byte[] html = FragmentCache.getInstance().getOrRender(build, "allTestsRows", "allTestsRows-" + start + "-" + count, findPublisherConfiguration(build), this, "rows.jelly", request, response);
+		response.setContentType("text/html;charset=UTF-8");
+		response.getOutputStream().write(html);
 	}
 
-	public int getFinishedSize() {
-		if(testResultByStatus.get(TestStatus.FINISHED) != null) {
-			return testResultByStatus.get(TestStatus.FINISHED).size();
-		} else {
-			return 0;
+	/**
+	 * @return True if the build's report can come from the FragmentCache: the cache is on, the build is done and the ages are known.
+	 */
+	public boolean isFragmentCacheable() {
+		return findCacheableBuild() != null;
+	}
+
+	/**
+	 * For index.jelly. Only call it if #isFragmentCacheable.
+	 * @param name The fragment's view, without ".jelly".
+	 * @return The fragment's HTML.
+	 */
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public String renderCachedFragment(String name) throws IOException, ServletException {
+		Run build = findCacheableBuild();
+		if(build == null) {
+			throw new IllegalStateException("The report of " + buildId + " can't be cached");
 		}
+		byte[] html = FragmentCache.getInstance().getOrRender(build, name, name, findPublisherConfiguration(build), this, name + ".jelly", Stapler.getCurrentRequest(), Stapler.getCurrentResponse());
+		return new String(html, "UTF-8");
 	}
 
-	public int getStartedSize() {
-		if(testResultByStatus.get(TestStatus.STARTED) != null) {
-			return testResultByStatus.get(TestStatus.STARTED).size();
-		} else {
-			return 0;
+	private Run findCacheableBuild() {
+		if(enrichmentPending || !FragmentCache.getInstance().isEnabled()) {
+			return null;
+		}
+		Run build = findBuild();
+		return build == null || build.isBuilding() ? null : build;
+	}
+
+	/**
+	 * The settings of the publishers the build was recorded with, and of the ones the job has now, whose descriptors the views may use.
+	 */
+	private String findPublisherConfiguration(Run build) {
+		StringBuilder configuration = new StringBuilder();
+		appendConfigurationKeys(configuration, testDataPublishers);
+		if(build.getParent() instanceof AbstractProject) {
+			TestRecorder recorder = ((AbstractProject<?, ?>) build.getParent()).getPublishersList().get(TestRecorder.class);
+			if(recorder != null) {
+				configuration.append('\n');
+				appendConfigurationKeys(configuration, recorder.getTestDataPublishers());
+			}
+		}
+		return configuration.toString();
+	}
+
+	static void appendConfigurationKeys(StringBuilder configuration, Collection<TestDataPublisher> publishers) {
+		if(publishers == null) {
+			return;
+		}
+		for (TestDataPublisher publisher : publishers) {
+			configuration.append(publisher.getConfigurationKey()).append('\n');
 		}
 	}
 
-	public Collection<TestResult> findAllResults() {
-		TreeSet<TestResult> result = new TreeSet<TestResult>(new Comparator<TestResult>() {
-			public int compare(TestResult r1, TestResult r2) {
-				return r1.getName().compareTo(r2.getName());
+	/**
+	 * @return The full results with the status, highest age first. Shared by every caller, so it can't be modified.
+	 */
+	public List<TestResult> findResults(TestStatus status) {
+		List<TestResult> results = results().get(status);
+		return results == null ? Collections.<TestResult>emptyList() : results;
+	}
+
+	/**
+	 * @return The full results, highest age first. Shared by every caller, so it can't be modified.
+	 */
+	public List<TestResult> findResultsByAge() {
+		return results().getSortedByAge();
+	}
+
+	/**
+	 * @return The full results, slowest first. Shared by every caller, so it can't be modified.
+	 */
+	public List<TestResult> findResultsByTime() {
+		return results().getSortedByTime();
+	}
+
+	/**
+	 * Both lists are sorted by name and have no name in common.
+	 */
+	private static List<TestResult> mergeByName(List<TestResult> first, List<TestResult> second) {
+		List<TestResult> merged = new ArrayList<TestResult>(first.size() + second.size());
+		int i = 0;
+		int j = 0;
+		while(i < first.size() && j < second.size()) {
+			if(TestResultSet.BY_NAME.compare(first.get(i), second.get(j)) <= 0) {
+				merged.add(first.get(i++));
+			} else {
+				merged.add(second.get(j++));
 			}
-		});
-		for (Collection<TestResult> testResults : testResultByStatus.values()) {
-			result.addAll(testResults);
 		}
-		return result;
+		merged.addAll(first.subList(i, first.size()));
+		merged.addAll(second.subList(j, second.size()));
+		return Collections.unmodifiableList(merged);
 	}
 
 	@Override
@@ -185,7 +703,7 @@ public class TestResultAction extends AbstractTestResultAction {
 
 	@Override
 	public int getFailCount() {
-		if(testResultByStatus.get(TestStatus.FAILED) != null) {
+		if(count(TestStatus.FAILED) > 0) {
 			return getTotalCount() - getSkipCount() - getFinishedCount();
 		} else {
 			return 0;
@@ -195,20 +713,30 @@ public class TestResultAction extends AbstractTestResultAction {
 	@Override
 	@Exported
 	public int getTotalCount() {
-		return testResults.size();
+		if(statusCounts != null) {
+			int total = 0;
+			for (int statusCount : statusCounts) {
+				total += statusCount;
+			}
+			return total;
+		}
+		return results().size();
 	}
 
 	@Override
 	@Exported
 	public int getSkipCount() {
-		List<TestResult> skipped = testResultByStatus.get(TestStatus.SKIPPED);
-		return skipped == null ? 0 :skipped.size();
+		return count(TestStatus.SKIPPED);
 	}
 	
 	@Exported
 	public int getFinishedCount() {
-		List<TestResult> skipped = testResultByStatus.get(TestStatus.FINISHED);
-		return skipped == null ? 0 :skipped.size();
+		return count(TestStatus.FINISHED);
+	}
+
+	@Exported
+	public MatrixTestResults getMatrixResults() {
+		return matrixResults;
 	}
 
 	@Exported
@@ -223,6 +751,18 @@ public class TestResultAction extends AbstractTestResultAction {
 			return null;
 		}
 
+		TestResultTrend.Point previousPoint = TestResultTrend.forJob(build.getParent()).findPrevious(build.getNumber());
+		if(previousPoint != null) {
+			Run previousBuild = build.getParent().getBuildByNumber(previousPoint.getBuildNumber());
+			if(previousBuild != null) {
+				TestResultAction action = previousBuild.getAction(TestResultAction.class);
+				if(action != null) {
+					return action;
+				}
+			}
+		}
+
+		// The trend doesn't know about it. Fall back to walking the history.
 		Run previousBuild = build;
 		while((previousBuild = previousBuild.getPreviousBuild()) != null) {
 			TestResultAction action = previousBuild.getAction(TestResultAction.class);
@@ -234,6 +774,29 @@ public class TestResultAction extends AbstractTestResultAction {
 		return null;
 	}
 
+	/**
+	 * Draws the trend up to this build from the job's TestResultTrend instead of walking getPreviousResult.
+	 */
+	@Override
+	public void doGraph(StaplerRequest request, StaplerResponse response) throws IOException {
+		Run build = findBuild();
+		if(build == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		TestResultTrend.forJob(build.getParent()).createGraph(build.getNumber(), Integer.MAX_VALUE, build.getTimeInMillis()).doPng(request, response);
+	}
+
+	@Override
+	public void doGraphMap(StaplerRequest request, StaplerResponse response) throws IOException {
+		Run build = findBuild();
+		if(build == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		TestResultTrend.forJob(build.getParent()).createGraph(build.getNumber(), Integer.MAX_VALUE, build.getTimeInMillis()).doMap(request, response);
+	}
+
 	@Exported
 	public String getUniquifier() {
 		return uniquifier;
@@ -1,6 +1,7 @@
 package com.attask.jenkins.testreport;
 
 import com.attask.jenkins.testreport.dynamicresults.DynamicTestResultsAction;
+import com.attask.jenkins.testreport.storage.ResultRetention;
 import hudson.Launcher;
 import hudson.matrix.MatrixAggregator;
 import hudson.matrix.MatrixBuild;
@@ -17,51 +18,64 @@ import java.util.*;
  */
 public class TestResultMatrixAggregator extends MatrixAggregator {
 	private final List<TestDataPublisher> testDataPublishers;
+	private final boolean storeAsDelta;
+	private final boolean deferEnrichment;
+	private final ResultRetention retention;
 
-	protected TestResultMatrixAggregator(MatrixBuild build, Launcher launcher, BuildListener listener, List<TestDataPublisher> testDataPublishers) {
+	protected TestResultMatrixAggregator(MatrixBuild build, Launcher launcher, BuildListener listener, List<TestDataPublisher> testDataPublishers, boolean storeAsDelta, boolean deferEnrichment, ResultRetention retention) {
 		super(build, launcher, listener);
 		this.testDataPublishers = testDataPublishers;
+		this.storeAsDelta = storeAsDelta;
+		this.deferEnrichment = deferEnrichment;
+		this.retention = retention;
 	}
 
 	@Override
 	public boolean endBuild() throws InterruptedException, IOException {
 		List<MatrixRun> runs = build.getRuns();
 		if(runs != null && runs.size() > 0) {
-			Set<TestResult> testResults = new HashSet<TestResult>();
+			List<String> axes = new ArrayList<String>();
+			List<List<TestResult>> resultsByAxis = new ArrayList<List<TestResult>>();
 			String uniquifier = null;
 			String url = "testReport";
 			for (MatrixRun run : runs) {
 				if(run.getNumber() == build.getNumber()) {
 					List<TestResultAction> actions = run.getActions(TestResultAction.class);
-					if(actions != null) {
+					if(actions != null && !actions.isEmpty()) {
+						List<TestResult> axisResults = new ArrayList<TestResult>();
 						for (TestResultAction action : actions) {
-							testResults.addAll(action.getTestResults().values());
+							axisResults.addAll(action.findAllResults());
 							uniquifier = action.getUniquifier();
 						}
+						axes.add(run.getParent().getCombination().toString());
+						resultsByAxis.add(axisResults);
 					}
 				}
 			}
+			MatrixTestResults matrixResults = MatrixTestResults.merge(axes, resultsByAxis);
+			Collection<TestResult> testResults = MatrixTestResults.pickRepresentatives(resultsByAxis);
+
 			List<DynamicTestResultsAction> oldTestResultActions = build.getActions(DynamicTestResultsAction.class);
 			if(oldTestResultActions != null && !oldTestResultActions.isEmpty()) {
 				build.getActions().removeAll(oldTestResultActions);
 			}
-			build.addAction(new TestResultAction(build, testResults, uniquifier, url, testDataPublishers));
+			TestResultAction resultAction = new TestResultAction(build, testResults, uniquifier, url, testDataPublishers, matrixResults);
+			if(deferEnrichment) {
+				// The axes may still be computing their own ages, so compute the parent's from its own history.
+				resultAction.markEnrichmentPending();
+			}
+			resultAction.applyRetention(retention);
+			if(storeAsDelta) {
+				resultAction.storeAsDelta();
+			}
+			build.addAction(resultAction);
+			TestResultTrend.forJob(build.getParent()).record(build.getNumber(), resultAction);
+			FailureFirstOrder.forJob(build.getParent()).record(build.getNumber(), testResults, !deferEnrichment);
+			if(deferEnrichment) {
+				AgeEnricher.schedule(resultAction);
+			}
 		}
 
 		return true;
 	}
-
-	private List<TestResult> mergeResults(List<MatrixRun> runs) {
-		List<TestResult> testResults = new ArrayList<TestResult>();
-
-		for (MatrixRun run : runs) {
-			List<TestResultAction> actions = run.getActions(TestResultAction.class);
-			if(actions != null) {
-				for (TestResultAction action : actions) {
-					testResults.addAll(action.getTestResults().values());
-				}
-			}
-		}
-		return testResults;
-	}
 }
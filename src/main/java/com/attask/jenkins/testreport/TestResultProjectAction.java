@@ -0,0 +1,136 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.sharding.ShardPlan;
+import com.attask.jenkins.testreport.sharding.TestDurations;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.util.Graph;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the test result trend on the job page.
+ * The graph is drawn from the job's TestResultTrend, so rendering it doesn't load any builds.
+ * Also serves shard plans for the job's tests at shardPlan and a failure-first test order at testOrder.
+ */
+public class TestResultProjectAction implements Action {
+	private static final int MAX_BUILDS = 100;
+	private static final int DEFAULT_SHARD_PLAN_BUILDS = 10;
+	private static final int MAX_SHARDS = 1000;
+	private static final int MAX_SHARD_PLAN_BUILDS = 100;
+
+	private final AbstractProject<?, ?> project;
+
+	public TestResultProjectAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in floatingBox.jelly
+	public boolean isShowGraph() {
+		return !TestResultTrend.forJob(project).isEmpty();
+	}
+
+	public Graph getGraph() {
+		AbstractBuild<?, ?> lastBuild = project.getLastBuild();
+		long timestamp = lastBuild == null ? 0 : lastBuild.getTimeInMillis();
+		return TestResultTrend.forJob(project).createGraph(Integer.MAX_VALUE, MAX_BUILDS, timestamp);
+	}
+
+	/**
+	 * Plans how to split the tests into shards of equal duration, using the smoothed durations of recent builds.
+	 * Parameters:
+	 * 	shards: the number of shards (required, at most 1000)
+	 * 	builds: how many recent builds to read durations from (default 10, at most 100)
+	 * 	format: txt (default) or json
+	 * 	tests: newline separated test names to plan. Defaults to the tests in the latest build. May also be POSTed as the request body.
+	 */
+	public void doShardPlan(StaplerRequest request, StaplerResponse response) throws IOException {
+		int shardCount;
+		int builds;
+		try {
+			shardCount = Integer.parseInt(request.getParameter("shards"));
+			String buildsParameter = request.getParameter("builds");
+			builds = buildsParameter == null || buildsParameter.isEmpty() ? DEFAULT_SHARD_PLAN_BUILDS : Integer.parseInt(buildsParameter);
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "shards and builds must be numbers");
+			return;
+		}
+		if(shardCount < 1 || builds < 1) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "shards and builds must be at least 1");
+			return;
+		}
+		// Both are paid for on every request: shards in the plan's size and builds in the number of builds loaded.
+		if(shardCount > MAX_SHARDS || builds > MAX_SHARD_PLAN_BUILDS) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "shards can be at most " + MAX_SHARDS + " and builds at most " + MAX_SHARD_PLAN_BUILDS);
+			return;
+		}
+
+		TestDurations durations = TestDurations.fromHistory(project, builds);
+		List<String> tests = findRequestedTests(request);
+		if(tests.isEmpty()) {
+			tests = durations.getLatestTests();
+		}
+		ShardPlan plan = ShardPlan.create(tests, durations, shardCount);
+
+		if("json".equals(request.getParameter("format"))) {
+			response.setContentType("application/json;charset=UTF-8");
+			response.getWriter().print(plan.toJson().toString(2));
+		} else {
+			response.setContentType("text/plain;charset=UTF-8");
+			response.getWriter().print(plan.toText());
+		}
+	}
+
+	private static List<String> findRequestedTests(StaplerRequest request) throws IOException {
+		String tests = request.getParameter("tests");
+		if(tests == null && "POST".equals(request.getMethod())) {
+			StringBuilder sb = new StringBuilder();
+			BufferedReader reader = request.getReader();
+			String line;
+			while((line = reader.readLine()) != null) {
+				sb.append(line).append('\n');
+			}
+			tests = sb.toString();
+		}
+
+		List<String> result = new ArrayList<String>();
+		if(tests != null) {
+			for (String test : tests.split("\r?\n")) {
+				if(!test.trim().isEmpty() && !test.startsWith("#")) {
+					result.add(test.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The job's tests, most likely to fail first, one per line. Served at testOrder for runners to fetch when they start.
+	 */
+	public FailureFirstOrder getTestOrder() {
+		return FailureFirstOrder.forJob(project);
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Test Result Trend";
+	}
+
+	public String getUrlName() {
+		return "testReportTrend";
+	}
+}
@@ -0,0 +1,211 @@
+package com.attask.jenkins.testreport;
+
+import java.util.*;
+
+/**
+ * The detailed results of one build, indexed by name and by status.
+ *
+ * The getters return views that are built once per set and shared by every caller, so they are read-only.
+ * A page or API call can ask for them as often as it likes without copying the results.
+ * The sorted views are built the first time one of them is asked for, since most sets are never shown sorted.
+ */
+public class TestResultSet {
+	private final Map<String, TestResult> byName;
+	private final Map<TestStatus, List<TestResult>> byStatus;
+
+	private final Map<String, TestResult> nameView;
+	private final EnumMap<TestStatus, List<TestResult>> statusViews;
+	private final List<TestResult> failures;
+	private final int[] counts;
+
+	private volatile SortedViews sortedViews;
+
+	public TestResultSet(Collection<TestResult> testResults) {
+		this.byName = new HashMap<String, TestResult>(testResults.size());
+		this.byStatus = new HashMap<TestStatus, List<TestResult>>();
+		for (TestResult testResult : testResults) {
+			this.byName.put(testResult.getName(), testResult);
+
+			List<TestResult> testResultList = this.byStatus.get(testResult.getStatus());
+			if(testResultList == null) {
+				testResultList = new ArrayList<TestResult>();
+				this.byStatus.put(testResult.getStatus(), testResultList);
+			}
+			testResultList.add(testResult);
+		}
+		for (List<TestResult> results : this.byStatus.values()) {
+			Collections.sort(results);
+		}
+
+		this.nameView = Collections.unmodifiableMap(byName);
+		this.statusViews = createStatusViews(byStatus);
+		this.failures = createFailures(statusViews);
+		this.counts = createCounts(statusViews);
+	}
+
+	/**
+	 * Wraps maps that were already indexed, like the ones stored inline in build.xml.
+	 */
+	TestResultSet(Map<String, TestResult> byName, Map<TestStatus, List<TestResult>> byStatus) {
+		this.byName = byName;
+		this.byStatus = byStatus;
+
+		this.nameView = Collections.unmodifiableMap(byName);
+		this.statusViews = createStatusViews(byStatus);
+		this.failures = createFailures(statusViews);
+		this.counts = createCounts(statusViews);
+	}
+
+	private static EnumMap<TestStatus, List<TestResult>> createStatusViews(Map<TestStatus, List<TestResult>> byStatus) {
+		EnumMap<TestStatus, List<TestResult>> views = new EnumMap<TestStatus, List<TestResult>>(TestStatus.class);
+		for (Map.Entry<TestStatus, List<TestResult>> entry : byStatus.entrySet()) {
+			if(entry.getValue() != null && !entry.getValue().isEmpty()) {
+				views.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+			}
+		}
+		return views;
+	}
+
+	/**
+	 * Failed tests, then tests that were never run, then tests that never finished. Each group keeps its status order.
+	 */
+	private static List<TestResult> createFailures(EnumMap<TestStatus, List<TestResult>> statusViews) {
+		TestStatus[] statuses = {TestStatus.FAILED, TestStatus.ADDED, TestStatus.STARTED};
+		int size = 0;
+		for (TestStatus status : statuses) {
+			List<TestResult> results = statusViews.get(status);
+			size += results == null ? 0 : results.size();
+		}
+		if(size == 0) {
+			return Collections.emptyList();
+		}
+		TestResult[] failures = new TestResult[size];
+		int position = 0;
+		for (TestStatus status : statuses) {
+			List<TestResult> results = statusViews.get(status);
+			if(results != null) {
+				for (TestResult result : results) {
+					failures[position++] = result;
+				}
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(failures));
+	}
+
+	private static int[] createCounts(EnumMap<TestStatus, List<TestResult>> statusViews) {
+		int[] counts = new int[TestStatus.values().length];
+		for (Map.Entry<TestStatus, List<TestResult>> entry : statusViews.entrySet()) {
+			counts[entry.getKey().ordinal()] = entry.getValue().size();
+		}
+		return counts;
+	}
+
+	public Map<String, TestResult> getByName() {
+		return nameView;
+	}
+
+	/**
+	 * @return The modifiable map this set was built from, for storing inline in build.xml.
+	 */
+	Map<String, TestResult> getStoredByName() {
+		return byName;
+	}
+
+	/**
+	 * @return The modifiable map this set was built from, for storing inline in build.xml.
+	 */
+	Map<TestStatus, List<TestResult>> getStoredByStatus() {
+		return byStatus;
+	}
+
+	/**
+	 * @return The results with the given status, oldest failure first, or null if there are none.
+	 */
+	public List<TestResult> get(TestStatus status) {
+		return statusViews.get(status);
+	}
+
+	/**
+	 * @return The failed, not run and not finished tests.
+	 */
+	public List<TestResult> getFailures() {
+		return failures;
+	}
+
+	public int count(TestStatus status) {
+		return counts[status.ordinal()];
+	}
+
+	public int size() {
+		return byName.size();
+	}
+
+	/**
+	 * @return Every result, sorted by name.
+	 */
+	public List<TestResult> getSortedByName() {
+		return sortedViews().byName;
+	}
+
+	/**
+	 * @return Every result, in TestResult's natural order: highest age first, then by name.
+	 */
+	public List<TestResult> getSortedByAge() {
+		return sortedViews().byAge;
+	}
+
+	/**
+	 * @return Every result, slowest first, then by name. Results without a time come last.
+	 */
+	public List<TestResult> getSortedByTime() {
+		return sortedViews().byTime;
+	}
+
+	private SortedViews sortedViews() {
+		SortedViews views = sortedViews;
+		if(views == null) {
+			synchronized (this) {
+				views = sortedViews;
+				if(views == null) {
+					views = new SortedViews(byName.values());
+					sortedViews = views;
+				}
+			}
+		}
+		return views;
+	}
+
+	public static final Comparator<TestResult> BY_NAME = new Comparator<TestResult>() {
+		public int compare(TestResult first, TestResult second) {
+			return first.getName().compareTo(second.getName());
+		}
+	};
+
+	public static final Comparator<TestResult> BY_TIME = new Comparator<TestResult>() {
+		public int compare(TestResult first, TestResult second) {
+			if(first.getTime() != second.getTime()) {
+				return first.getTime() > second.getTime() ? -1 : 1;
+			}
+			return first.getName().compareTo(second.getName());
+		}
+	};
+
+	private static class SortedViews {
+		private final List<TestResult> byName;
+		private final List<TestResult> byAge;
+		private final List<TestResult> byTime;
+
+		SortedViews(Collection<TestResult> results) {
+			TestResult[] all = results.toArray(new TestResult[results.size()]);
+			this.byName = sorted(all, BY_NAME);
+			this.byAge = sorted(all, null);
+			this.byTime = sorted(all, BY_TIME);
+		}
+
+		private static List<TestResult> sorted(TestResult[] results, Comparator<TestResult> comparator) {
+			TestResult[] copy = results.clone();
+			Arrays.sort(copy, comparator);
+			return Collections.unmodifiableList(Arrays.asList(copy));
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package com.attask.jenkins.testreport;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.util.ColorPalette;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import hudson.util.StackedAreaRenderer2;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.ui.RectangleInsets;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The (build, total, failed, skipped) counts of every build of a job that recorded test results.
+ * Kept up to date as builds record, so the trend graph and TestResultAction#getPreviousResult
+ * 	don't have to load and scan old builds.
+ *
+ * Persisted next to the job's config.xml.
+ */
+public class TestResultTrend {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String FILE_NAME = "testReportTrend.xml";
+	private static final Map<Job, Holder> trends = new WeakHashMap<Job, Holder>();
+
+	private final transient File file;
+	private final List<Point> points;
+
+	private TestResultTrend(File file) {
+		this.file = file;
+		this.points = new ArrayList<Point>();
+	}
+
+	/**
+	 * A job's trend, once it is loaded. Loading the first time may read every build of the job,
+	 * 	so it happens under this job's holder rather than the map of every job's trend.
+	 */
+	private static class Holder {
+		private volatile TestResultTrend trend;
+	}
+
+	public static TestResultTrend forJob(Job<?, ?> job) {
+		Holder holder;
+		synchronized (trends) {
+			holder = trends.get(job);
+			if(holder == null) {
+				holder = new Holder();
+				trends.put(job, holder);
+			}
+		}
+		TestResultTrend trend = holder.trend;
+		if(trend == null) {
+			synchronized (holder) {
+				trend = holder.trend;
+				if(trend == null) {
+					trend = load(job);
+					holder.trend = trend;
+				}
+			}
+		}
+		return trend;
+	}
+
+	private static TestResultTrend load(Job<?, ?> job) {
+		File file = new File(job.getRootDir(), FILE_NAME);
+		TestResultTrend trend = new TestResultTrend(file);
+		XmlFile xmlFile = new XmlFile(file);
+		if(xmlFile.exists()) {
+			try {
+				xmlFile.unmarshal(trend);
+				return trend;
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't read " + file + ". Rebuilding it from the build history.", e);
+				trend.points.clear();
+			}
+		}
+
+		// First time we've seen this job (or the file was corrupt). This is the only time old builds are loaded.
+		for (Run<?, ?> run : job.getBuilds()) {
+			TestResultAction action = run.getAction(TestResultAction.class);
+			if(action != null) {
+				trend.points.add(new Point(run.getNumber(), action.getTotalCount(), action.getFailCount(), action.getSkipCount()));
+			}
+		}
+		Collections.sort(trend.points);
+		trend.save();
+		return trend;
+	}
+
+	public synchronized void record(int buildNumber, TestResultAction action) {
+		Point point = new Point(buildNumber, action.getTotalCount(), action.getFailCount(), action.getSkipCount());
+		int index = Collections.binarySearch(points, point);
+		if(index >= 0) {
+			points.set(index, point);
+		} else {
+			points.add(-index - 1, point);
+		}
+		save();
+	}
+
+	public synchronized void remove(int buildNumber) {
+		int index = Collections.binarySearch(points, new Point(buildNumber, 0, 0, 0));
+		if(index >= 0) {
+			points.remove(index);
+			save();
+		}
+	}
+
+	/**
+	 * @return The closest point before the given build number, or null if no earlier build recorded results.
+	 */
+	public synchronized Point findPrevious(int buildNumber) {
+		int index = Collections.binarySearch(points, new Point(buildNumber, 0, 0, 0));
+		int previous = (index >= 0 ? index : -index - 1) - 1;
+		return previous >= 0 ? points.get(previous) : null;
+	}
+
+	public synchronized List<Point> getPoints() {
+		return new ArrayList<Point>(points);
+	}
+
+	public synchronized boolean isEmpty() {
+		return points.isEmpty();
+	}
+
+	/**
+	 * @param upTo Only include builds up to and including this build number.
+	 * @param maxBuilds The maximum number of builds to plot.
+	 * @param timestamp Used for the If-Modified-Since check.
+	 */
+	public Graph createGraph(final int upTo, final int maxBuilds, long timestamp) {
+		return new Graph(timestamp, 500, 200) {
+			@Override
+			protected JFreeChart createGraph() {
+				DataSetBuilder<String, BuildLabel> builder = new DataSetBuilder<String, BuildLabel>();
+				List<Point> points = getPoints();
+				int plotted = 0;
+				for (int i = points.size() - 1; i >= 0 && plotted < maxBuilds; i--) {
+					Point point = points.get(i);
+					if(point.getBuildNumber() > upTo) {
+						continue;
+					}
+					BuildLabel label = new BuildLabel(point.getBuildNumber());
+					builder.add(point.getFailed(), "0Failed", label);
+					builder.add(point.getSkipped(), "1Skipped", label);
+					builder.add(point.getTotal() - point.getFailed() - point.getSkipped(), "2Passed", label);
+					plotted++;
+				}
+				return createChart(builder);
+			}
+		};
+	}
+
+	private static JFreeChart createChart(DataSetBuilder<String, BuildLabel> builder) {
+		JFreeChart chart = ChartFactory.createStackedAreaChart(null, null, "count", builder.build(), PlotOrientation.VERTICAL, false, true, false);
+		chart.setBackgroundPaint(Color.white);
+
+		CategoryPlot plot = chart.getCategoryPlot();
+		plot.setBackgroundPaint(Color.WHITE);
+		plot.setOutlinePaint(null);
+		plot.setForegroundAlpha(0.8f);
+		plot.setRangeGridlinesVisible(true);
+		plot.setRangeGridlinePaint(Color.black);
+
+		CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+		plot.setDomainAxis(domainAxis);
+		domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+		domainAxis.setLowerMargin(0.0);
+		domainAxis.setUpperMargin(0.0);
+		domainAxis.setCategoryMargin(0.0);
+
+		NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+		rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+
+		StackedAreaRenderer2 renderer = new StackedAreaRenderer2();
+		plot.setRenderer(renderer);
+		renderer.setSeriesPaint(0, ColorPalette.RED);
+		renderer.setSeriesPaint(1, ColorPalette.YELLOW);
+		renderer.setSeriesPaint(2, ColorPalette.BLUE);
+
+		plot.setInsets(new RectangleInsets(0, 0, 0, 5.0));
+		return chart;
+	}
+
+	private synchronized void save() {
+		try {
+			new XmlFile(file).write(this);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Couldn't save " + file, e);
+		}
+	}
+
+	public static class Point implements Comparable<Point> {
+		private final int buildNumber;
+		private final int total;
+		private final int failed;
+		private final int skipped;
+
+		public Point(int buildNumber, int total, int failed, int skipped) {
+			this.buildNumber = buildNumber;
+			this.total = total;
+			this.failed = failed;
+			this.skipped = skipped;
+		}
+
+		public int getBuildNumber() {
+			return buildNumber;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getSkipped() {
+			return skipped;
+		}
+
+		//@Override
+		public int compareTo(Point o) {
+			return buildNumber < o.buildNumber ? -1 : (buildNumber == o.buildNumber ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Category label that sorts numerically but displays like the build number.
+	 */
+	private static class BuildLabel implements Comparable<BuildLabel> {
+		private final int number;
+
+		private BuildLabel(int number) {
+			this.number = number;
+		}
+
+		//@Override
+		public int compareTo(BuildLabel o) {
+			return number < o.number ? -1 : (number == o.number ? 0 : 1);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof BuildLabel && ((BuildLabel) o).number == number;
+		}
+
+		@Override
+		public int hashCode() {
+			return number;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + number;
+		}
+	}
+
+	@Extension
+	public static class RemoveOnDelete extends RunListener<Run> {
+		public RemoveOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			if(run.getAction(TestResultAction.class) != null) {
+				forJob(run.getParent()).remove(run.getNumber());
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package com.attask.jenkins.testreport;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What each test thread was doing during a build, reconstructed from the thread and runtime on the
+ * 	FINISHED, FAILED and SKIPPED lines. The files don't have start times, so each thread's tests are laid end to end in the order they finished.
+ * That is enough to see threads that sat idle while another one worked through a slow tail.
+ *
+ * Computed once when the results are recorded and written to its own file in the build's directory, since it names every test that ran
+ * 	and build.xml may deliberately not (see ResultRetention). Builds recorded before that have it in build.xml as parallel arrays.
+ */
+public class ThreadTimeline {
+	private static final int TAIL_TEST_COUNT = 10;
+	private static final int FORMAT_VERSION = 1;
+
+	private final String[] threadIds;
+	private final String[][] testNames;
+	private final int[][] durations;
+
+	private transient List<ThreadRow> threads;
+
+	private ThreadTimeline(String[] threadIds, String[][] testNames, int[][] durations) {
+		this.threadIds = threadIds;
+		this.testNames = testNames;
+		this.durations = durations;
+	}
+
+	/**
+	 * @param resultsByFile The parsed results of each file, in file order.
+	 * 	When there is more than one file, thread ids are prefixed with the file's index since each file comes from a different runner.
+	 * @return null if no result had a thread.
+	 */
+	public static ThreadTimeline create(List<? extends Collection<TestResult>> resultsByFile) {
+		Map<String, List<TestResult>> byThread = new TreeMap<String, List<TestResult>>();
+		for (int file = 0; file < resultsByFile.size(); file++) {
+			for (TestResult result : resultsByFile.get(file)) {
+				if(result.getThreadId() == null || !isCompleted(result.getStatus())) {
+					continue;
+				}
+				String threadId = resultsByFile.size() > 1 ? (file + 1) + ":" + result.getThreadId() : result.getThreadId();
+				List<TestResult> threadResults = byThread.get(threadId);
+				if(threadResults == null) {
+					threadResults = new ArrayList<TestResult>();
+					byThread.put(threadId, threadResults);
+				}
+				threadResults.add(result);
+			}
+		}
+		if(byThread.isEmpty()) {
+			return null;
+		}
+
+		String[] threadIds = new String[byThread.size()];
+		String[][] testNames = new String[byThread.size()][];
+		int[][] durations = new int[byThread.size()][];
+		int thread = 0;
+		for (Map.Entry<String, List<TestResult>> entry : byThread.entrySet()) {
+			List<TestResult> threadResults = entry.getValue();
+			threadIds[thread] = entry.getKey();
+			testNames[thread] = new String[threadResults.size()];
+			durations[thread] = new int[threadResults.size()];
+			for (int i = 0; i < threadResults.size(); i++) {
+				TestResult result = threadResults.get(i);
+				testNames[thread][i] = result.getName();
+				durations[thread][i] = (int) Math.max(0, Math.min(Integer.MAX_VALUE, result.getTime()));
+			}
+			thread++;
+		}
+		return new ThreadTimeline(threadIds, testNames, durations);
+	}
+
+	/**
+	 * Writes the timeline gzipped, with each thread's tests as a name and a duration. Written to a temporary file first,
+	 * 	so a reader never sees half a timeline.
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temporary))));
+		try {
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(threadIds.length);
+			for (int thread = 0; thread < threadIds.length; thread++) {
+				writeString(out, threadIds[thread]);
+				out.writeInt(testNames[thread].length);
+				for (int i = 0; i < testNames[thread].length; i++) {
+					writeString(out, testNames[thread][i]);
+					out.writeInt(durations[thread][i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if(!temporary.renameTo(file)) {
+			// Windows won't rename over an existing file.
+			if(!file.delete() || !temporary.renameTo(file)) {
+				throw new IOException("Couldn't move " + temporary + " to " + file);
+			}
+		}
+	}
+
+	public static ThreadTimeline read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		try {
+			int version = in.readByte();
+			if(version != FORMAT_VERSION) {
+				throw new IOException(file + " is version " + version + " of the timeline format, not " + FORMAT_VERSION);
+			}
+			int threadCount = in.readInt();
+			String[] threadIds = new String[threadCount];
+			String[][] testNames = new String[threadCount][];
+			int[][] durations = new int[threadCount][];
+			for (int thread = 0; thread < threadCount; thread++) {
+				threadIds[thread] = readString(in);
+				int testCount = in.readInt();
+				testNames[thread] = new String[testCount];
+				durations[thread] = new int[testCount];
+				for (int i = 0; i < testCount; i++) {
+					testNames[thread][i] = readString(in);
+					durations[thread][i] = in.readInt();
+				}
+			}
+			return new ThreadTimeline(threadIds, testNames, durations);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * DataOutput#writeUTF can't write more than 64 KB, which a parameterized test's name can reach.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static boolean isCompleted(TestStatus status) {
+		return status == TestStatus.FINISHED || status == TestStatus.FAILED || status == TestStatus.SKIPPED;
+	}
+
+	public synchronized List<ThreadRow> getThreads() {
+		if(threads == null) {
+			long wallTime = 0;
+			for (int[] threadDurations : durations) {
+				wallTime = Math.max(wallTime, sum(threadDurations));
+			}
+			List<ThreadRow> rows = new ArrayList<ThreadRow>(threadIds.length);
+			for (int thread = 0; thread < threadIds.length; thread++) {
+				rows.add(new ThreadRow(threadIds[thread], testNames[thread], durations[thread], wallTime));
+			}
+			threads = Collections.unmodifiableList(rows);
+		}
+		return threads;
+	}
+
+	public int getThreadCount() {
+		return threadIds.length;
+	}
+
+	/**
+	 * @return The time the slowest thread took, in milliseconds.
+	 */
+	public long getWallTime() {
+		long wallTime = 0;
+		for (ThreadRow row : getThreads()) {
+			wallTime = Math.max(wallTime, row.getBusyTime());
+		}
+		return wallTime;
+	}
+
+	public long getTotalTestTime() {
+		long total = 0;
+		for (ThreadRow row : getThreads()) {
+			total += row.getBusyTime();
+		}
+		return total;
+	}
+
+	/**
+	 * @return Total test time / (threads * wall time). 1 means every thread was busy the whole time.
+	 */
+	public double getParallelEfficiency() {
+		long wallTime = getWallTime();
+		if(wallTime <= 0) {
+			return 1;
+		}
+		return (double) getTotalTestTime() / ((double) getThreadCount() * wallTime);
+	}
+
+	public long getParallelEfficiencyPercent() {
+		return Math.round(getParallelEfficiency() * 100);
+	}
+
+	/**
+	 * @return The slowest tests that were still running after the first thread ran out of work, slowest first.
+	 * 	These are the tests worth moving earlier or splitting up.
+	 */
+	public List<Segment> findTailTests() {
+		long firstIdle = Long.MAX_VALUE;
+		for (ThreadRow row : getThreads()) {
+			firstIdle = Math.min(firstIdle, row.getBusyTime());
+		}
+
+		List<Segment> tail = new ArrayList<Segment>();
+		for (ThreadRow row : getThreads()) {
+			for (Segment segment : row.getSegments()) {
+				if(segment.getStart() + segment.getDuration() > firstIdle) {
+					tail.add(segment);
+				}
+			}
+		}
+		Collections.sort(tail, new Comparator<Segment>() {
+			public int compare(Segment first, Segment second) {
+				return first.getDuration() > second.getDuration() ? -1 : (first.getDuration() == second.getDuration() ? 0 : 1);
+			}
+		});
+		return tail.size() > TAIL_TEST_COUNT ? tail.subList(0, TAIL_TEST_COUNT) : tail;
+	}
+
+	private static long sum(int[] values) {
+		long sum = 0;
+		for (int value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	public static class ThreadRow {
+		private final String threadId;
+		private final List<Segment> segments;
+		private final long busyTime;
+		private final long wallTime;
+
+		private ThreadRow(String threadId, String[] testNames, int[] durations, long wallTime) {
+			this.threadId = threadId;
+			this.wallTime = wallTime;
+			List<Segment> segments = new ArrayList<Segment>(testNames.length);
+			long start = 0;
+			for (int i = 0; i < testNames.length; i++) {
+				segments.add(new Segment(threadId, testNames[i], start, durations[i], wallTime));
+				start += durations[i];
+			}
+			this.segments = Collections.unmodifiableList(segments);
+			this.busyTime = start;
+		}
+
+		public String getThreadId() {
+			return threadId;
+		}
+
+		public List<Segment> getSegments() {
+			return segments;
+		}
+
+		public long getBusyTime() {
+			return busyTime;
+		}
+
+		/**
+		 * @return How long the thread sat idle at the end waiting for the slowest thread, in milliseconds.
+		 */
+		public long getIdleTime() {
+			return wallTime - busyTime;
+		}
+
+		public double getIdlePercent() {
+			return wallTime <= 0 ? 0 : getIdleTime() * 100.0 / wallTime;
+		}
+	}
+
+	public static class Segment {
+		private final String threadId;
+		private final String testName;
+		private final long start;
+		private final long duration;
+		private final long wallTime;
+
+		private Segment(String threadId, String testName, long start, long duration, long wallTime) {
+			this.threadId = threadId;
+			this.testName = testName;
+			this.start = start;
+			this.duration = duration;
+			this.wallTime = wallTime;
+		}
+
+		public String getThreadId() {
+			return threadId;
+		}
+
+		public String getTestName() {
+			return testName;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+
+		public double getLeftPercent() {
+			return wallTime <= 0 ? 0 : start * 100.0 / wallTime;
+		}
+
+		public double getWidthPercent() {
+			return wallTime <= 0 ? 0 : duration * 100.0 / wallTime;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.attask.jenkins.testreport.dynamicresults;
 
 import com.attask.jenkins.testreport.*;
+import com.attask.jenkins.testreport.metrics.RecordingStats;
 import com.attask.jenkins.testreport.utils.RunUtils;
 import hudson.FilePath;
 import hudson.matrix.MatrixBuild;
@@ -12,6 +13,8 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
@@ -24,6 +27,10 @@ import java.util.logging.Logger;
 public class DynamicTestResultsAction extends AbstractTestResultAction {
 	private static final Logger LOGGER = Logger.getLogger("TestReportTool");
 	private static final int SECONDS = 1000;
+	/**
+	 * How many of the latest parses can still serve the All Results table a page started loading from.
+	 */
+	private static final int PINNED_SNAPSHOTS = 2;
 
 	private final String buildId;
 	private final String failuresFilePattern;
@@ -32,6 +39,10 @@ public class DynamicTestResultsAction extends AbstractTestResultAction {
 
 	private transient TestResultAction cachedTestResultsAction = null;
 	private transient long cacheCreateTime = 0;
+	/**
+	 * The latest parses by their cacheCreateTime, oldest first, so every chunk of one All Results table comes from the same parse.
+	 */
+	private transient Map<Long, TestResultAction> snapshots;
 	private final List<TestDataPublisher> testDataPublishers;
 
 	public DynamicTestResultsAction(AbstractBuild owner, String failuresFile, String uniqueId, boolean isUnix, List<TestDataPublisher> testDataPublishers) throws IOException {
@@ -66,12 +77,77 @@ public class DynamicTestResultsAction extends AbstractTestResultAction {
 	}
 
 	private TestResultAction createDelegatedAction(AbstractBuild abstractBuild) throws IOException, InterruptedException {
-		cachedTestResultsAction = new TestResultAction(abstractBuild, findTestResults(), uniqueId, getUrlName(), this.getTestDataPublishers());
-		cacheCreateTime = System.currentTimeMillis();
-		return cachedTestResultsAction;
+		RecordingStats stats = new RecordingStats();
+		TestResultAction action = new TestResultAction(abstractBuild, findTestResults(stats), uniqueId, getUrlName(), this.getTestDataPublishers());
+		long createTime = System.currentTimeMillis();
+		synchronized (this) {
+			if(snapshots == null) {
+				snapshots = new LinkedHashMap<Long, TestResultAction>();
+			}
+			snapshots.put(createTime, action);
+			Iterator<Long> oldest = snapshots.keySet().iterator();
+			while(snapshots.size() > PINNED_SNAPSHOTS) {
+				oldest.next();
+				oldest.remove();
+			}
+		}
+		cachedTestResultsAction = action;
+		cacheCreateTime = createTime;
+		stats.publish("dynamic");
+		return action;
+	}
+
+	/**
+	 * For allTests.jelly, which gives it to resultPage.js to send back with every chunk of rows.
+	 * @return The cacheCreateTime of the given parse, or 0 if it is no longer pinned.
+	 */
+	public synchronized long findSnapshotTime(TestResultAction action) {
+		if(snapshots != null) {
+			for (Map.Entry<Long, TestResultAction> entry : snapshots.entrySet()) {
+				if(entry.getValue() == action) {
+					return entry.getKey();
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Serves one chunk of the All Results table from the parse named by the snapshot parameter.
+	 * The files are parsed again every 10 seconds while the build runs, and chunks from different parses would skip or repeat rows,
+	 * 	so once that parse is no longer pinned the request fails with 409 Conflict and resultPage.js starts the table over.
+	 */
+	public void doAllTestsRows(StaplerRequest request, StaplerResponse response) throws IOException, ServletException, InterruptedException {
+		String snapshot = request.getParameter("snapshot");
+		TestResultAction action;
+		if(snapshot == null || snapshot.isEmpty()) {
+			action = createDelegatedAction();
+		} else {
+			action = findSnapshot(snapshot);
+			if(action == null) {
+				response.sendError(HttpServletResponse.SC_CONFLICT, "The results changed while the table was loading");
+				return;
+			}
+		}
+		request.getView(action, "rows.jelly").forward(request, response);
+	}
+
+	private synchronized TestResultAction findSnapshot(String snapshot) {
+		if(snapshots == null) {
+			return null;
+		}
+		try {
+			return snapshots.get(Long.parseLong(snapshot));
+		} catch (NumberFormatException e) {
+			return null;
+		}
 	}
 
 	public List<TestResult> findTestResults() throws IOException, InterruptedException {
+		return findTestResults(new RecordingStats());
+	}
+
+	private List<TestResult> findTestResults(RecordingStats stats) throws IOException, InterruptedException {
 		Run run = RunUtils.findRun(buildId);
 		if(run == null) {
 			throw new NullPointerException("there was no run for id: " + buildId);
@@ -96,10 +172,12 @@ public class DynamicTestResultsAction extends AbstractTestResultAction {
 		for (AbstractBuild build : builds) {
 			FilePath workspace = build.getWorkspace();
 
+			long scanStart = System.nanoTime();
 			String[] files = workspace.act(new TestRecorder.WorkspaceIteratorCallable(failuresFilePattern, unix));
+			stats.addTime(RecordingStats.Phase.SCAN, System.nanoTime() - scanStart);
 			for (String file : files) {
 				FilePath resultFile = new FilePath(workspace, file);
-				Collection<TestResult> parsed = TestResult.parse(null, resultFile, run, uniqueId, getUrlName());
+				Collection<TestResult> parsed = TestResult.parse(null, resultFile, run, uniqueId, getUrlName(), stats, true, true);
 				result.addAll(parsed);
 			}
 		}
@@ -170,6 +248,17 @@ public class DynamicTestResultsAction extends AbstractTestResultAction {
 		return createDelegatedAction().findAllResults();
 	}
 
+	public List<TestResult> findResultRange(String start, String count) throws IOException, InterruptedException {
+		return createDelegatedAction().findResultRange(start, count);
+	}
+
+	/**
+	 * See TestResultAction#doQuery. Answered from the results as of the last parse.
+	 */
+	public void doQuery(StaplerRequest request, StaplerResponse response) throws IOException, InterruptedException {
+		createDelegatedAction().doQuery(request, response);
+	}
+
 	@Exported
 	public int getFailCount() {
 		try {
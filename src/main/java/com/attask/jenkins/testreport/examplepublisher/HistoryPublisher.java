@@ -26,9 +26,10 @@ public class HistoryPublisher extends TestDataPublisher {
 	private static final boolean ONLY_PREVIOUS_BUILDS = false;
     private static final int MAX_HISTORY_SIZE = 5;
 
-	public List<TestResult> history;
-	public long maxTime;
-	public int currentIndex;
+	// Set by each and includeFloat for the views to read, so they're not settings and aren't saved.
+	public transient List<TestResult> history;
+	public transient long maxTime;
+	public transient int currentIndex;
 
 	@DataBoundConstructor
 	public HistoryPublisher() {
@@ -94,8 +95,8 @@ public class HistoryPublisher extends TestDataPublisher {
 			Run next = build.getNextBuild();
 			while(next != null && historyCount > (maxHistoryCount / 2)) {
 				TestResultAction action = next.getAction(TestResultAction.class);
-				if(action != null) {
-					TestResult oldTestResult = action.getTestResults().get(testResult.getName());
+				if(action != null && action.mightContain(testResult.getName())) {
+					TestResult oldTestResult = action.findResult(testResult.getName());
 					if(oldTestResult != null && oldTestResult.getName().equals(testResult.getName()) && TestResult.uniquifierMatches(testResult, oldTestResult)) {
 						historyCount--;
 						history.add(oldTestResult);
@@ -111,8 +112,8 @@ public class HistoryPublisher extends TestDataPublisher {
 		TestResult current = null;
 		while(historyCount > 0 && previous != null) {
 			TestResultAction action = previous.getAction(TestResultAction.class);
-			if(action != null) {
-				TestResult oldTestResult = action.getTestResults().get(testResult.getName());
+			if(action != null && action.mightContain(testResult.getName())) {
+				TestResult oldTestResult = action.findResult(testResult.getName());
 				if(oldTestResult != null && oldTestResult.getName().equals(testResult.getName()) && TestResult.uniquifierMatches(testResult, oldTestResult)) {
 					historyCount--;
 					history.add(0, oldTestResult);
@@ -0,0 +1,191 @@
+package com.attask.jenkins.testreport.format;
+
+import com.attask.jenkins.testreport.ResultLineTokenizer;
+import com.attask.jenkins.testreport.TestStatus;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts "AtTask Failures v2" results files to v3, keeping every line's result in order.
+ * The file is streamed, so it works on files of any size. A gzip compressed v2 file is decompressed on the way.
+ *
+ * <pre>
+ * java -cp TestReportTool.jar com.attask.jenkins.testreport.format.ResultFileConverter unit.results unit.results3
+ * </pre>
+ */
+public class ResultFileConverter {
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("Usage: ResultFileConverter <v2 file> <v3 file>");
+			System.exit(2);
+		}
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			OutputStream out = new FileOutputStream(args[1]);
+			try {
+				int results = convert(in, out);
+				System.out.println("Converted " + results + " results");
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a v2 file with the same rules as the v2 parser and writes it as v3. Closes neither stream.
+	 * @return The number of results written.
+	 */
+	public static int convert(InputStream v2, OutputStream v3) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(v2, 64 * 1024);
+		in.mark(2);
+		boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+		in.reset();
+		Reader reader = new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(in) : in));
+
+		ResultFileV3Writer writer = new ResultFileV3Writer(new FilterOutputStream(v3) {
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				out.write(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+		ResultLineTokenizer tokenizer = new ResultLineTokenizer();
+		StringBuilder line = new StringBuilder();
+		int lineNumber = 0;
+		int results = 0;
+
+		Failure failure = null;
+		String text;
+		while((text = readLine(reader, line)) != null) {
+			if(lineNumber++ == 0) {
+				if(!text.equals("AtTask Failures v2")) {
+					throw new IOException("Unsupported file version: " + text);
+				}
+				continue;
+			}
+			if(failure != null) {
+				if(ResultLineTokenizer.testLineStatus(text) == null) {
+					failure.append(text);
+					continue;
+				}
+				failure.writeTo(writer, false);
+				results++;
+				failure = null;
+			}
+			if(!tokenizer.tokenize(text)) {
+				continue;
+			}
+			TestStatus status = tokenizer.getStatus();
+			if(status == null) {
+				throw new IOException("Line " + lineNumber + ": line status token invalid. '" + tokenizer.getStatusToken() + "'");
+			}
+			switch (status) {
+				case ADDED:
+				case STARTED:
+					writer.write(status, tokenizer.getTrimmedRest(), null, -1, null);
+					results++;
+					break;
+				case FINISHED:
+				case SKIPPED:
+					if(!tokenizer.hasThreadId()) {
+						throw new IOException("Line " + lineNumber + ": missing Thread ID");
+					}
+					if(!tokenizer.hasRunTime()) {
+						throw new IOException("Line " + lineNumber + ": missing Runtime");
+					}
+					writer.write(status, tokenizer.getName(), tokenizer.getThreadId(), tokenizer.getRunTime(), null);
+					results++;
+					break;
+				case FAILED:
+					if(!tokenizer.hasThreadId()) {
+						throw new IOException("Line " + lineNumber + ": missing Thread ID");
+					}
+					long runTime = -1;
+					if(tokenizer.hasRunTime()) {
+						try {
+							runTime = tokenizer.getRunTime();
+						} catch (NumberFormatException ignore) {
+							// The v2 parser records an unparseable run time as unknown too.
+						}
+					}
+					failure = new Failure(tokenizer.getName(), tokenizer.getThreadId(), runTime);
+					break;
+			}
+		}
+		if(failure != null) {
+			failure.writeTo(writer, true);
+			results++;
+		}
+		if(lineNumber == 0) {
+			throw new IOException("Unsupported file version: ");
+		}
+		writer.close();
+		return results;
+	}
+
+	/**
+	 * Reads up to the next \n and drops one \r before it, which is how the v2 parser splits lines.
+	 * @return The line, or null at the end of the file.
+	 */
+	private static String readLine(Reader reader, StringBuilder line) throws IOException {
+		line.setLength(0);
+		int c;
+		while((c = reader.read()) >= 0 && c != '\n') {
+			line.append((char) c);
+		}
+		if(c < 0 && line.length() == 0) {
+			return null;
+		}
+		int length = line.length();
+		if(length > 0 && line.charAt(length - 1) == '\r') {
+			length--;
+		}
+		return line.substring(0, length);
+	}
+
+	private static class Failure {
+		private final String name;
+		private final String threadId;
+		private final long runTime;
+		private final StringBuilder stackTrace = new StringBuilder();
+		/**
+		 * Blank lines are only part of the trace if something follows them, since the v2 parser drops blank lines at the end of the file.
+		 */
+		private int blankLines;
+
+		Failure(String name, String threadId, long runTime) {
+			this.name = name;
+			this.threadId = threadId;
+			this.runTime = runTime;
+		}
+
+		void append(String line) {
+			if(line.isEmpty()) {
+				blankLines++;
+				return;
+			}
+			appendBlankLines();
+			stackTrace.append(line).append('\n');
+		}
+
+		void writeTo(ResultFileV3Writer writer, boolean endOfFile) throws IOException {
+			if(!endOfFile) {
+				appendBlankLines();
+			}
+			writer.write(TestStatus.FAILED, name, threadId, runTime, stackTrace.toString());
+		}
+
+		private void appendBlankLines() {
+			for (; blankLines > 0; blankLines--) {
+				stackTrace.append('\n');
+			}
+		}
+	}
+}
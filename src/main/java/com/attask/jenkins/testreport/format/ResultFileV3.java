@@ -0,0 +1,121 @@
+package com.attask.jenkins.testreport.format;
+
+import com.attask.jenkins.testreport.TestStatus;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * The "AtTask Failures v3" results file format.
+ * v2 is line based and has no record boundaries, so the parser has to check every stack trace line to see whether it starts the next test.
+ * v3 is binary and every record says how long it is.
+ *
+ * <pre>
+ * file    := header record* [trailer]
+ * header  := "AtTask Failures v3\n"
+ * record  := varint length, then length bytes: kind, body
+ *   THREAD  body := string threadId                    gives the thread the next number, starting at 1
+ *   RESULT  body := status, string name, varint thread (0 for none), varint duration + 1 (0 for none), [string stackTrace if FAILED]
+ *   INDEX   body := varint interval, varint count, count x varint offset (each relative to the previous), varint threads, threads x string
+ * trailer := 8 byte big-endian offset of the INDEX record, "AFI3"
+ * string  := varint byte length, UTF-8 bytes
+ * </pre>
+ * Varints are unsigned LEB128. A reader skips records of kinds it doesn't know.
+ * The index is optional and comes last. It holds the offset of every interval-th result, and every thread id,
+ * 	so a reader can start at any of those results without reading what comes before it.
+ *
+ * Nothing here depends on Jenkins, so test harnesses can write v3 files with just this package.
+ */
+public class ResultFileV3 {
+	public static final String HEADER = "AtTask Failures v3\n";
+	static final byte[] HEADER_BYTES = HEADER.getBytes(Charset.forName("US-ASCII"));
+	static final byte[] TRAILER_MAGIC = "AFI3".getBytes(Charset.forName("US-ASCII"));
+	static final int TRAILER_LENGTH = 8 + 4;
+
+	static final int KIND_THREAD = 1;
+	static final int KIND_RESULT = 2;
+	static final int KIND_INDEX = 3;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The status codes in the file. They are fixed, so reordering TestStatus can't change the meaning of existing files.
+	 */
+	private static final TestStatus[] STATUSES = {null, TestStatus.ADDED, TestStatus.STARTED, TestStatus.SKIPPED, TestStatus.FAILED, TestStatus.FINISHED};
+
+	/**
+	 * @return True if the bytes start with the v3 header.
+	 */
+	public static boolean hasHeader(byte[] bytes, int length) {
+		if(length < HEADER_BYTES.length) {
+			return false;
+		}
+		for (int i = 0; i < HEADER_BYTES.length; i++) {
+			if(bytes[i] != HEADER_BYTES[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static int headerLength() {
+		return HEADER_BYTES.length;
+	}
+
+	static int statusCode(TestStatus status) {
+		for (int i = 1; i < STATUSES.length; i++) {
+			if(STATUSES[i] == status) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No code for " + status);
+	}
+
+	static TestStatus status(int code) throws IOException {
+		if(code <= 0 || code >= STATUSES.length) {
+			throw new IOException("Unknown status code " + code);
+		}
+		return STATUSES[code];
+	}
+
+	static int writeVarint(OutputStream out, long value) throws IOException {
+		if(value < 0) {
+			throw new IllegalArgumentException("Negative varint " + value);
+		}
+		int written = 1;
+		while((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+			written++;
+		}
+		out.write((int) value);
+		return written;
+	}
+
+	static void writeString(OutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @return The varint, or -1 if the stream ended before it started.
+	 */
+	static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if(b < 0) {
+				if(shift == 0) {
+					return -1;
+				}
+				throw new EOFException("The stream ended inside a varint");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint is longer than 64 bits");
+	}
+}
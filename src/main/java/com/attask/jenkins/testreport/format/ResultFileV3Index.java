@@ -0,0 +1,85 @@
+package com.attask.jenkins.testreport.format;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The optional index at the end of a v3 results file: where every interval-th result starts, and every thread id.
+ * With it, a reader can start at any indexed result, for instance to split a file between threads.
+ */
+public class ResultFileV3Index {
+	private final int interval;
+	private final long[] offsets;
+	private final List<String> threadIds;
+
+	private ResultFileV3Index(int interval, long[] offsets, List<String> threadIds) {
+		this.interval = interval;
+		this.offsets = offsets;
+		this.threadIds = Collections.unmodifiableList(threadIds);
+	}
+
+	/**
+	 * @return The index, or null if the file was written without one or isn't complete yet.
+	 */
+	public static ResultFileV3Index read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			long length = in.length();
+			if(length < ResultFileV3.HEADER_BYTES.length + ResultFileV3.TRAILER_LENGTH) {
+				return null;
+			}
+			in.seek(length - ResultFileV3.TRAILER_LENGTH);
+			long indexPosition = in.readLong();
+			byte[] magic = new byte[ResultFileV3.TRAILER_MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, ResultFileV3.TRAILER_MAGIC)) {
+				return null;
+			}
+			if(indexPosition < ResultFileV3.HEADER_BYTES.length || indexPosition >= length - ResultFileV3.TRAILER_LENGTH) {
+				throw new IOException("The index of " + file + " points outside the file");
+			}
+
+			in.seek(indexPosition);
+			InputStream stream = new BufferedInputStream(new FileInputStream(in.getFD()));
+			ResultFileV3.readVarint(stream);
+			if(stream.read() != ResultFileV3.KIND_INDEX) {
+				throw new IOException("The index of " + file + " doesn't point at an index record");
+			}
+			int interval = (int) ResultFileV3.readVarint(stream);
+			long[] offsets = new long[(int) ResultFileV3.readVarint(stream)];
+			long previous = 0;
+			for (int i = 0; i < offsets.length; i++) {
+				previous += ResultFileV3.readVarint(stream);
+				offsets[i] = previous;
+			}
+			int threadCount = (int) ResultFileV3.readVarint(stream);
+			List<String> threadIds = new ArrayList<String>(threadCount);
+			for (int i = 0; i < threadCount; i++) {
+				byte[] bytes = new byte[(int) ResultFileV3.readVarint(stream)];
+				new DataInputStream(stream).readFully(bytes);
+				threadIds.add(new String(bytes, ResultFileV3.UTF8));
+			}
+			return new ResultFileV3Index(interval, offsets, threadIds);
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return The offset of result number i * interval at position i.
+	 */
+	public long[] getOffsets() {
+		return offsets;
+	}
+
+	public List<String> getThreadIds() {
+		return threadIds;
+	}
+}
@@ -0,0 +1,182 @@
+package com.attask.jenkins.testreport.format;
+
+import com.attask.jenkins.testreport.TestStatus;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the results of an "AtTask Failures v3" results file one at a time. See ResultFileV3 for the layout.
+ */
+public class ResultFileV3Reader implements Closeable {
+	private final InputStream in;
+	private final boolean growing;
+	private final List<String> threadIds;
+	private byte[] record = new byte[256];
+	private int position;
+	private int end;
+	private boolean finished;
+	private boolean truncated;
+
+	/**
+	 * Reads from the start of a file.
+	 * @param growing True if the file may still be being written. A record the writer hasn't finished then ends the results instead of failing.
+	 * @throws IOException If the stream doesn't start with the v3 header.
+	 */
+	public ResultFileV3Reader(InputStream in, boolean growing) throws IOException {
+		this(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024), growing, new ArrayList<String>());
+		byte[] header = new byte[ResultFileV3.HEADER_BYTES.length];
+		int read = readFully(this.in, header, 0, header.length);
+		if(!ResultFileV3.hasHeader(header, read)) {
+			throw new IOException("Not an AtTask Failures v3 file");
+		}
+	}
+
+	private ResultFileV3Reader(InputStream in, boolean growing, List<String> threadIds) {
+		this.in = in;
+		this.growing = growing;
+		this.threadIds = threadIds;
+	}
+
+	/**
+	 * Starts reading at one of the results in the file's index, skipping everything before it.
+	 * @param block Starts at result number block * index.getInterval().
+	 */
+	public static ResultFileV3Reader openAt(File file, ResultFileV3Index index, int block) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			in.getChannel().position(index.getOffsets()[block]);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new ResultFileV3Reader(new BufferedInputStream(in, 64 * 1024), false, new ArrayList<String>(index.getThreadIds()));
+	}
+
+	/**
+	 * @return The next result, or null at the end of the results.
+	 */
+	public ResultRecord next() throws IOException {
+		while(!finished) {
+			long length;
+			try {
+				length = ResultFileV3.readVarint(in);
+			} catch (EOFException e) {
+				if(growing) {
+					// The writer has only written part of the record's length so far.
+					truncated = true;
+					finished = true;
+					break;
+				}
+				throw e;
+			}
+			if(length < 0) {
+				finished = true;
+				break;
+			}
+			if(length > Integer.MAX_VALUE) {
+				throw new IOException("Record of " + length + " bytes is too long");
+			}
+			if(record.length < length) {
+				record = new byte[Math.max((int) length, record.length * 2)];
+			}
+			end = (int) length;
+			int read = readFully(in, record, 0, end);
+			if(read < end) {
+				if(growing) {
+					truncated = true;
+					finished = true;
+					break;
+				}
+				throw new EOFException("The file ends inside a record");
+			}
+			position = 0;
+
+			int kind = readByte();
+			switch (kind) {
+				case ResultFileV3.KIND_THREAD:
+					threadIds.add(readString());
+					break;
+				case ResultFileV3.KIND_RESULT:
+					return readResult();
+				case ResultFileV3.KIND_INDEX:
+					// The index is the last record, and sequential readers don't need it.
+					finished = true;
+					break;
+				default:
+					// A kind from a newer writer. The length says how much to skip.
+					break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return True if the file ended partway through a record, which only a growing file is allowed to do.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private ResultRecord readResult() throws IOException {
+		TestStatus status = ResultFileV3.status(readByte());
+		String name = readString();
+		long threadNumber = readVarint();
+		String threadId = null;
+		if(threadNumber > 0) {
+			if(threadNumber > threadIds.size()) {
+				throw new IOException("Thread " + threadNumber + " is used before it is defined");
+			}
+			threadId = threadIds.get((int) threadNumber - 1);
+		}
+		long duration = readVarint() - 1;
+		String stackTrace = status == TestStatus.FAILED ? readString() : null;
+		return new ResultRecord(status, name, threadId, duration, stackTrace);
+	}
+
+	private int readByte() throws IOException {
+		if(position >= end) {
+			throw new IOException("Record ends early");
+		}
+		return record[position++] & 0xFF;
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint is longer than 64 bits");
+	}
+
+	private String readString() throws IOException {
+		long length = readVarint();
+		if(length > end - position) {
+			throw new IOException("String of " + length + " bytes runs past the end of its record");
+		}
+		String value = new String(record, position, (int) length, ResultFileV3.UTF8);
+		position += (int) length;
+		return value;
+	}
+
+	private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int total = 0;
+		while(total < length) {
+			int read = in.read(buffer, offset + total, length - total);
+			if(read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,163 @@
+package com.attask.jenkins.testreport.format;
+
+import com.attask.jenkins.testreport.TestStatus;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an "AtTask Failures v3" results file. See ResultFileV3 for the layout.
+ * Calls must come from one thread at a time, and the file is only complete once the writer is closed.
+ *
+ * <pre>
+ * ResultFileV3Writer writer = new ResultFileV3Writer(new FileOutputStream("unit.results"));
+ * writer.started("com.example.SomeTest.testIt");
+ * writer.failed("com.example.SomeTest.testIt", "thread-2", 1234, stackTrace);
+ * writer.close();
+ * </pre>
+ */
+public class ResultFileV3Writer implements Closeable, Flushable {
+	public static final int DEFAULT_INDEX_INTERVAL = 1024;
+
+	private final OutputStream out;
+	private final int indexInterval;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private final Map<String, Integer> threadNumbers = new HashMap<String, Integer>();
+	private final List<String> threadIds = new ArrayList<String>();
+	private final List<Long> indexOffsets = new ArrayList<Long>();
+	private long position;
+	private long results;
+	private boolean closed;
+
+	public ResultFileV3Writer(OutputStream out) throws IOException {
+		this(out, DEFAULT_INDEX_INTERVAL);
+	}
+
+	/**
+	 * @param indexInterval Every this many results are indexed. 0 writes no index.
+	 */
+	public ResultFileV3Writer(OutputStream out, int indexInterval) throws IOException {
+		if(indexInterval < 0) {
+			throw new IllegalArgumentException("indexInterval must not be negative: " + indexInterval);
+		}
+		this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 64 * 1024);
+		this.indexInterval = indexInterval;
+		this.out.write(ResultFileV3.HEADER_BYTES);
+		position = ResultFileV3.HEADER_BYTES.length;
+	}
+
+	public void added(String name) throws IOException {
+		write(TestStatus.ADDED, name, null, -1, null);
+	}
+
+	public void started(String name) throws IOException {
+		write(TestStatus.STARTED, name, null, -1, null);
+	}
+
+	public void finished(String name, String threadId, long duration) throws IOException {
+		write(TestStatus.FINISHED, name, threadId, duration, null);
+	}
+
+	public void skipped(String name, String threadId, long duration) throws IOException {
+		write(TestStatus.SKIPPED, name, threadId, duration, null);
+	}
+
+	public void failed(String name, String threadId, long duration, String stackTrace) throws IOException {
+		write(TestStatus.FAILED, name, threadId, duration, stackTrace);
+	}
+
+	/**
+	 * @param threadId Null if the result has no thread.
+	 * @param duration The run time in milliseconds, or -1 if it isn't known.
+	 * @param stackTrace Only written for failures. Null is written as an empty trace.
+	 */
+	public void write(TestStatus status, String name, String threadId, long duration, String stackTrace) throws IOException {
+		if(closed) {
+			throw new IOException("The writer is closed");
+		}
+		if(name == null) {
+			throw new NullPointerException("name");
+		}
+		int threadNumber = 0;
+		if(threadId != null) {
+			Integer number = threadNumbers.get(threadId);
+			if(number == null) {
+				threadIds.add(threadId);
+				number = threadIds.size();
+				threadNumbers.put(threadId, number);
+				record.reset();
+				record.write(ResultFileV3.KIND_THREAD);
+				ResultFileV3.writeString(record, threadId);
+				flushRecord();
+			}
+			threadNumber = number;
+		}
+
+		if(indexInterval > 0 && results % indexInterval == 0) {
+			indexOffsets.add(position);
+		}
+		record.reset();
+		record.write(ResultFileV3.KIND_RESULT);
+		record.write(ResultFileV3.statusCode(status));
+		ResultFileV3.writeString(record, name);
+		ResultFileV3.writeVarint(record, threadNumber);
+		ResultFileV3.writeVarint(record, duration < 0 ? 0 : duration + 1);
+		if(status == TestStatus.FAILED) {
+			ResultFileV3.writeString(record, stackTrace == null ? "" : stackTrace);
+		}
+		flushRecord();
+		results++;
+	}
+
+	/**
+	 * Flushes the records written so far, so a live view can read them while the tests are still running.
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes the index, if there is one, and closes the stream.
+	 */
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if(indexInterval > 0) {
+				long indexPosition = position;
+				record.reset();
+				record.write(ResultFileV3.KIND_INDEX);
+				ResultFileV3.writeVarint(record, indexInterval);
+				ResultFileV3.writeVarint(record, indexOffsets.size());
+				long previous = 0;
+				for (long offset : indexOffsets) {
+					ResultFileV3.writeVarint(record, offset - previous);
+					previous = offset;
+				}
+				ResultFileV3.writeVarint(record, threadIds.size());
+				for (String threadId : threadIds) {
+					ResultFileV3.writeString(record, threadId);
+				}
+				flushRecord();
+
+				DataOutputStream trailer = new DataOutputStream(out);
+				trailer.writeLong(indexPosition);
+				trailer.write(ResultFileV3.TRAILER_MAGIC);
+				trailer.flush();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void flushRecord() throws IOException {
+		position += ResultFileV3.writeVarint(out, record.size());
+		record.writeTo(out);
+		position += record.size();
+	}
+}
@@ -0,0 +1,51 @@
+package com.attask.jenkins.testreport.format;
+
+import com.attask.jenkins.testreport.TestStatus;
+
+/**
+ * One result read from a v3 results file.
+ */
+public class ResultRecord {
+	private final TestStatus status;
+	private final String name;
+	private final String threadId;
+	private final long duration;
+	private final String stackTrace;
+
+	public ResultRecord(TestStatus status, String name, String threadId, long duration, String stackTrace) {
+		this.status = status;
+		this.name = name;
+		this.threadId = threadId;
+		this.duration = duration;
+		this.stackTrace = stackTrace;
+	}
+
+	public TestStatus getStatus() {
+		return status;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The thread id, or null if the result has none. Every record on a thread shares the same String.
+	 */
+	public String getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * @return The run time in milliseconds, or -1 if it isn't known.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The stack trace of a failure, or null for every other status.
+	 */
+	public String getStackTrace() {
+		return stackTrace;
+	}
+}
@@ -0,0 +1,48 @@
+package com.attask.jenkins.testreport.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram. Lock free so it can be updated from every request thread.
+ */
+public class LatencyHistogram {
+	/**
+	 * Upper bounds of the buckets, in milliseconds. Anything slower lands in the implicit +Inf bucket.
+	 */
+	static final long[] BUCKET_BOUNDS_MS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000};
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while(bucket < BUCKET_BOUNDS_MS.length && millis > BUCKET_BOUNDS_MS[bucket]) {
+			bucket++;
+		}
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sumNanos.addAndGet(nanos);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSumNanos() {
+		return sumNanos.get();
+	}
+
+	/**
+	 * @return The number of samples in each bucket (not cumulative). The last one is +Inf.
+	 */
+	public long[] getBuckets() {
+		long[] result = new long[buckets.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,36 @@
+package com.attask.jenkins.testreport.metrics;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exposes ReportMetrics at /testReportMetrics/ in the Prometheus text format so it can be scraped.
+ */
+@Extension
+public class MetricsRootAction implements RootAction {
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Test Report Metrics";
+	}
+
+	public String getUrlName() {
+		return "testReportMetrics";
+	}
+
+	public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+		response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		ReportMetrics.writeTo(writer);
+		writer.flush();
+	}
+}
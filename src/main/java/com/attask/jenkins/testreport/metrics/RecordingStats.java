@@ -0,0 +1,90 @@
+package com.attask.jenkins.testreport.metrics;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time went while recording one build's results, and how much was processed.
+ * Printed to the build log and then added to ReportMetrics.
+ */
+public class RecordingStats {
+	public enum Phase {
+		SCAN("workspace scan"),
+		TRANSFER("file transfer"),
+		PARSE("parse"),
+		AGE("age walk"),
+		HIGHLIGHT("highlight matching"),
+		STACK_TRACES("stack trace store"),
+		STORE("result storage"),
+		TREND("trend and test order update");
+
+		private final String displayName;
+
+		Phase(String displayName) {
+			this.displayName = displayName;
+		}
+	}
+
+	public enum Counter {
+		FILES("files"),
+		BYTES("bytes"),
+		LINES("lines"),
+		RESULTS("results"),
+		AGE_BUILDS_VISITED("builds visited for age");
+
+		private final String displayName;
+
+		Counter(String displayName) {
+			this.displayName = displayName;
+		}
+	}
+
+	private final long start = System.nanoTime();
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+	private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+	public void addTime(Phase phase, long nanos) {
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	public long getTime(Phase phase) {
+		return phaseNanos.get(phase.ordinal());
+	}
+
+	public void add(Counter counter, long delta) {
+		counts.addAndGet(counter.ordinal(), delta);
+	}
+
+	public long get(Counter counter) {
+		return counts.get(counter.ordinal());
+	}
+
+	public void printTo(PrintStream logger) {
+		logger.println("Test report recording took " + toMillis(System.nanoTime() - start) + " ms:");
+		for (Phase phase : Phase.values()) {
+			logger.println(String.format(Locale.ENGLISH, "\t%-20s %8d ms", phase.displayName, toMillis(getTime(phase))));
+		}
+		for (Counter counter : Counter.values()) {
+			logger.println(String.format(Locale.ENGLISH, "\t%-25s %,12d", counter.displayName, get(counter)));
+		}
+	}
+
+	/**
+	 * Adds this recording to the process-wide metrics.
+	 * @param prefix e.g. "recording" or "dynamic"
+	 */
+	public void publish(String prefix) {
+		for (Phase phase : Phase.values()) {
+			ReportMetrics.record(prefix + "." + phase.name().toLowerCase(Locale.ENGLISH), getTime(phase));
+		}
+		for (Counter counter : Counter.values()) {
+			ReportMetrics.increment(prefix + "." + counter.name().toLowerCase(Locale.ENGLISH), get(counter));
+		}
+		ReportMetrics.record(prefix + ".total", System.nanoTime() - start);
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000;
+	}
+}
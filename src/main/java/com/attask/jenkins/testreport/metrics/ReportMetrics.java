@@ -0,0 +1,106 @@
+package com.attask.jenkins.testreport.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters and latency histograms for recording and serving test reports.
+ * Names are dotted, e.g. "recording.age" or "render.index", and are exposed by MetricsRootAction.
+ */
+public class ReportMetrics {
+	private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	public static void increment(String name, long delta) {
+		AtomicLong counter = counters.get(name);
+		if(counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if(counter == null) {
+				counter = newCounter;
+			}
+		}
+		counter.addAndGet(delta);
+	}
+
+	public static void record(String name, long nanos) {
+		LatencyHistogram histogram = histograms.get(name);
+		if(histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if(histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Starts timing something that can't be wrapped in a single method call, like a page render.
+	 * Used from jelly with j:invokeStatic.
+	 */
+	public static Timer startTimer() {
+		return new Timer();
+	}
+
+	public static long getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	public static LatencyHistogram getHistogram(String name) {
+		return histograms.get(name);
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format.
+	 */
+	public static void writeTo(PrintWriter writer) {
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+			String name = toMetricName(entry.getKey()) + "_total";
+			writer.println("# TYPE " + name + " counter");
+			writer.println(name + " " + entry.getValue().get());
+		}
+
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+			String name = toMetricName(entry.getKey()) + "_seconds";
+			LatencyHistogram histogram = entry.getValue();
+			long[] buckets = histogram.getBuckets();
+
+			writer.println("# TYPE " + name + " histogram");
+			long cumulative = 0;
+			for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_MS.length; i++) {
+				cumulative += buckets[i];
+				writer.println(name + "_bucket{le=\"" + (LatencyHistogram.BUCKET_BOUNDS_MS[i] / 1000.0) + "\"} " + cumulative);
+			}
+			cumulative += buckets[buckets.length - 1];
+			writer.println(name + "_bucket{le=\"+Inf\"} " + cumulative);
+			writer.println(name + "_sum " + (histogram.getSumNanos() / 1000000000.0));
+			writer.println(name + "_count " + histogram.getCount());
+		}
+	}
+
+	private static String toMetricName(String name) {
+		StringBuilder sb = new StringBuilder("testreport_");
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	public static class Timer {
+		private final long start = System.nanoTime();
+
+		/**
+		 * Records the time since the timer was started under the given name.
+		 */
+		public void stop(String name) {
+			record(name, System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.attask.jenkins.testreport.sharding;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Splits tests into shards of roughly equal total duration.
+ * Uses longest processing time first: the tests are sorted slowest first and each one goes to the shard with the least work so far,
+ * 	which keeps the longest shard within 4/3 of the optimum.
+ */
+public class ShardPlan {
+	private final List<Shard> shards;
+	private final List<String> estimatedTests;
+	private final long estimateForUnknown;
+
+	private ShardPlan(List<Shard> shards, List<String> estimatedTests, long estimateForUnknown) {
+		this.shards = shards;
+		this.estimatedTests = estimatedTests;
+		this.estimateForUnknown = estimateForUnknown;
+	}
+
+	public static ShardPlan create(Collection<String> testNames, TestDurations durations, int shardCount) {
+		if(shardCount < 1) {
+			throw new IllegalArgumentException("shardCount must be at least 1 but was " + shardCount);
+		}
+
+		long estimateForUnknown = durations.findMedian();
+		List<String> estimatedTests = new ArrayList<String>();
+		final Map<String, Long> testDurations = new HashMap<String, Long>();
+		for (String testName : new LinkedHashSet<String>(testNames)) {
+			Double duration = durations.find(testName);
+			if(duration == null) {
+				estimatedTests.add(testName);
+				testDurations.put(testName, estimateForUnknown);
+			} else {
+				testDurations.put(testName, Math.round(duration));
+			}
+		}
+
+		List<String> sorted = new ArrayList<String>(testDurations.keySet());
+		Collections.sort(sorted, new Comparator<String>() {
+			public int compare(String first, String second) {
+				int compare = testDurations.get(second).compareTo(testDurations.get(first));
+				return compare != 0 ? compare : first.compareTo(second);
+			}
+		});
+
+		List<Shard> shards = new ArrayList<Shard>(shardCount);
+		PriorityQueue<Shard> byTotal = new PriorityQueue<Shard>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			Shard shard = new Shard(i);
+			shards.add(shard);
+			byTotal.add(shard);
+		}
+		for (String testName : sorted) {
+			Shard shard = byTotal.poll();
+			shard.add(testName, testDurations.get(testName));
+			byTotal.add(shard);
+		}
+
+		return new ShardPlan(shards, estimatedTests, estimateForUnknown);
+	}
+
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	/**
+	 * @return The tests that had no timing data and were planned with the median duration.
+	 */
+	public List<String> getEstimatedTests() {
+		return estimatedTests;
+	}
+
+	/**
+	 * One test per line, with a "# shard" comment line before each shard.
+	 */
+	public String toText() {
+		StringBuilder sb = new StringBuilder();
+		for (Shard shard : shards) {
+			sb.append("# shard ").append(shard.getIndex() + 1).append(" of ").append(shards.size())
+					.append(", ").append(shard.getTests().size()).append(" tests, estimated ").append(shard.getEstimatedMillis()).append(" ms\n");
+			for (String test : shard.getTests()) {
+				sb.append(test).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	public JSONObject toJson() {
+		JSONArray shardsJson = new JSONArray();
+		for (Shard shard : shards) {
+			JSONObject shardJson = new JSONObject();
+			shardJson.put("index", shard.getIndex());
+			shardJson.put("estimatedMillis", shard.getEstimatedMillis());
+			shardJson.put("tests", shard.getTests());
+			shardsJson.add(shardJson);
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("shards", shardsJson);
+		json.put("estimateForUnknownMillis", estimateForUnknown);
+		json.put("estimatedTests", estimatedTests);
+		return json;
+	}
+
+	public static class Shard implements Comparable<Shard> {
+		private final int index;
+		private final List<String> tests = new ArrayList<String>();
+		private long estimatedMillis;
+
+		private Shard(int index) {
+			this.index = index;
+		}
+
+		private void add(String test, long millis) {
+			tests.add(test);
+			estimatedMillis += millis;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public List<String> getTests() {
+			return tests;
+		}
+
+		public long getEstimatedMillis() {
+			return estimatedMillis;
+		}
+
+		//@Override
+		public int compareTo(Shard o) {
+			if(estimatedMillis != o.estimatedMillis) {
+				return estimatedMillis < o.estimatedMillis ? -1 : 1;
+			}
+			return index < o.index ? -1 : (index == o.index ? 0 : 1);
+		}
+	}
+}
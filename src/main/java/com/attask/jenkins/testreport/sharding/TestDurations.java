@@ -0,0 +1,107 @@
+package com.attask.jenkins.testreport.sharding;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestResultAction;
+import com.attask.jenkins.testreport.TestResultTrend;
+import com.attask.jenkins.testreport.TestStatus;
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.util.*;
+
+/**
+ * Smoothed per-test durations over a job's recent builds.
+ * Each build's time is folded into an exponentially weighted moving average, oldest first,
+ * 	so a test that recently got slower is planned with its new duration after a few builds instead of the all-time mean.
+ */
+public class TestDurations {
+	/**
+	 * Weight of the newest observation.
+	 */
+	static final double ALPHA = 0.3;
+
+	/**
+	 * Used for every test when no test has timing data yet.
+	 */
+	static final long DEFAULT_DURATION = 1000;
+
+	private final Map<String, Double> averages;
+	private final List<String> latestTests;
+
+	private TestDurations(Map<String, Double> averages, List<String> latestTests) {
+		this.averages = averages;
+		this.latestTests = latestTests;
+	}
+
+	/**
+	 * @param maxBuilds The number of most recent builds with test results to read.
+	 */
+	public static TestDurations fromHistory(Job<?, ?> job, int maxBuilds) {
+		List<TestResultTrend.Point> points = TestResultTrend.forJob(job).getPoints();
+		List<TestResultAction> actions = new ArrayList<TestResultAction>(maxBuilds);
+		for (int i = points.size() - 1; i >= 0 && actions.size() < maxBuilds; i--) {
+			Run run = job.getBuildByNumber(points.get(i).getBuildNumber());
+			if(run != null) {
+				TestResultAction action = run.getAction(TestResultAction.class);
+				if(action != null) {
+					actions.add(action);
+				}
+			}
+		}
+		Collections.reverse(actions);
+
+		Map<String, Double> averages = new HashMap<String, Double>();
+		for (TestResultAction action : actions) {
+			for (TestResult result : action.findAllResults()) {
+				if(!isTimed(result)) {
+					continue;
+				}
+				Double average = averages.get(result.getName());
+				double time = result.getTime();
+				averages.put(result.getName(), average == null ? time : ALPHA * time + (1 - ALPHA) * average);
+			}
+		}
+
+		List<String> latestTests = new ArrayList<String>();
+		if(!actions.isEmpty()) {
+			for (TestResult result : actions.get(actions.size() - 1).findAllResults()) {
+				latestTests.add(result.getName());
+			}
+		}
+		return new TestDurations(averages, latestTests);
+	}
+
+	private static boolean isTimed(TestResult result) {
+		return result.getTime() >= 0 && (result.getStatus() == TestStatus.FINISHED || result.getStatus() == TestStatus.FAILED);
+	}
+
+	/**
+	 * @return The smoothed duration in milliseconds, or null if the test has never finished in the builds read.
+	 */
+	public Double find(String testName) {
+		return averages.get(testName);
+	}
+
+	/**
+	 * @return The median of every known duration. Used as the estimate for tests without timing data,
+	 * 	since new tests tend to look like the existing ones and the median isn't skewed by a few very slow suites.
+	 */
+	public long findMedian() {
+		if(averages.isEmpty()) {
+			return DEFAULT_DURATION;
+		}
+		List<Double> values = new ArrayList<Double>(averages.values());
+		Collections.sort(values);
+		int middle = values.size() / 2;
+		double median = values.size() % 2 == 1 ? values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+		return Math.round(median);
+	}
+
+	/**
+	 * @return The names of the tests in the newest build read, which is the default set of tests to plan.
+	 * 	Builds that only kept the number of passed tests can't list them, so those jobs should pass the tests to plan explicitly.
+	 */
+	public List<String> getLatestTests() {
+		return latestTests;
+	}
+}
@@ -0,0 +1,290 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores each build's results as a delta against a periodic full snapshot.
+ *
+ * Snapshots live in the job's directory (not the build's) so that deleting the build that wrote a snapshot
+ * 	doesn't break the deltas of the builds after it. Every snapshot has a .refs file listing the builds whose delta is relative to it,
+ * 	and the snapshot is deleted once the last of those builds is deleted.
+ */
+public class DeltaResultStorage {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+
+	public static final String DELTA_FILE = "testReportDelta.bin.gz";
+	private static final String SNAPSHOT_DIR = "testReportSnapshots";
+	private static final String SNAPSHOT_EXTENSION = ".bin.gz";
+	private static final String REFS_EXTENSION = ".refs";
+
+	/**
+	 * A new snapshot is written at least this often.
+	 */
+	private static final int SNAPSHOT_INTERVAL = 25;
+
+	/**
+	 * A new snapshot is also written when the delta would contain more than this fraction of the snapshot.
+	 */
+	private static final double MAX_DELTA_RATIO = 0.5;
+
+	/**
+	 * Consecutive builds of a job share a snapshot, so keep recently read ones around as long as memory allows.
+	 */
+	private static final ConcurrentMap<String, SoftReference<ResultSetCodec.Snapshot>> snapshotCache = new ConcurrentHashMap<String, SoftReference<ResultSetCodec.Snapshot>>();
+
+	public static boolean isStored(Run build) {
+		return new File(build.getRootDir(), DELTA_FILE).exists();
+	}
+
+	public static void store(Run build, Collection<TestResult> results) throws IOException {
+		store(findSnapshotDir(build), build.getRootDir(), build.getNumber(), RunUtils.getRealExternalizableId(build), results);
+	}
+
+	/**
+	 * @param snapshotDir Where the job's snapshots are.
+	 * @param buildDir Where the build's delta goes.
+	 */
+	static void store(File snapshotDir, File buildDir, int buildNumber, String defaultRunId, Collection<TestResult> results) throws IOException {
+		synchronized (DeltaResultStorage.class) {
+			int baseNumber = findLatestSnapshot(snapshotDir, buildNumber);
+			boolean writeSnapshot = baseNumber < 0 || buildNumber - baseNumber >= SNAPSHOT_INTERVAL;
+
+			byte[] delta = null;
+			if(!writeSnapshot) {
+				ResultSetCodec.Snapshot base = readSnapshot(snapshotDir, baseNumber);
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				GZIPOutputStream out = new GZIPOutputStream(bytes);
+				int changes = ResultSetCodec.writeDelta(out, baseNumber, base, defaultRunId, results);
+				out.close();
+				if(changes > base.getResults().size() * MAX_DELTA_RATIO) {
+					writeSnapshot = true;
+				} else {
+					delta = bytes.toByteArray();
+				}
+			}
+
+			if(writeSnapshot) {
+				if(!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+					throw new IOException("Couldn't create " + snapshotDir);
+				}
+				File snapshotFile = snapshotFile(snapshotDir, buildNumber);
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(snapshotFile));
+				try {
+					ResultSetCodec.writeSnapshot(out, defaultRunId, results);
+				} finally {
+					out.close();
+				}
+				snapshotCache.remove(snapshotFile.getAbsolutePath());
+
+				// The snapshot build's own delta is just "the snapshot, unchanged".
+				baseNumber = buildNumber;
+				ResultSetCodec.Snapshot self = readSnapshot(snapshotDir, buildNumber);
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				GZIPOutputStream deltaOut = new GZIPOutputStream(bytes);
+				ResultSetCodec.writeDelta(deltaOut, baseNumber, self, defaultRunId, results);
+				deltaOut.close();
+				delta = bytes.toByteArray();
+			}
+
+			addRef(snapshotDir, baseNumber, buildNumber);
+			FileOutputStream out = new FileOutputStream(new File(buildDir, DELTA_FILE));
+			try {
+				out.write(delta);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the results of a build that was already stored, like when its ages are filled in after the build.
+	 * The new delta is relative to the same snapshot as the old one, since other builds may depend on that snapshot,
+	 * 	and no snapshot or reference is written.
+	 */
+	public static void rewrite(Run build, Collection<TestResult> results) throws IOException {
+		rewrite(findSnapshotDir(build), build.getRootDir(), RunUtils.getRealExternalizableId(build), results);
+	}
+
+	static void rewrite(File snapshotDir, File buildDir, String defaultRunId, Collection<TestResult> results) throws IOException {
+		File deltaFile = new File(buildDir, DELTA_FILE);
+		synchronized (DeltaResultStorage.class) {
+			int baseNumber = readBaseNumber(deltaFile);
+			ResultSetCodec.Snapshot base = readSnapshot(snapshotDir, baseNumber);
+			File temporary = new File(buildDir, DELTA_FILE + ".tmp");
+			OutputStream out = new GZIPOutputStream(new FileOutputStream(temporary));
+			try {
+				ResultSetCodec.writeDelta(out, baseNumber, base, defaultRunId, results);
+			} finally {
+				out.close();
+			}
+			if(!temporary.renameTo(deltaFile)) {
+				// Windows won't rename over an existing file.
+				if(!deltaFile.delete() || !temporary.renameTo(deltaFile)) {
+					throw new IOException("Couldn't move " + temporary + " to " + deltaFile);
+				}
+			}
+		}
+	}
+
+	public static List<TestResult> load(Run build) throws IOException {
+		return load(findSnapshotDir(build), build.getRootDir());
+	}
+
+	static List<TestResult> load(File snapshotDir, File buildDir) throws IOException {
+		File deltaFile = new File(buildDir, DELTA_FILE);
+		int baseNumber = readBaseNumber(deltaFile);
+
+		ResultSetCodec.Snapshot base = readSnapshot(snapshotDir, baseNumber);
+		InputStream in = new GZIPInputStream(new FileInputStream(deltaFile));
+		try {
+			return ResultSetCodec.readDelta(in, base);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static File findSnapshotDir(Run build) {
+		return new File(build.getParent().getRootDir(), SNAPSHOT_DIR);
+	}
+
+	/**
+	 * @return The number of the build whose snapshot the delta is relative to.
+	 */
+	static int readBaseNumber(File deltaFile) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(deltaFile));
+		try {
+			return ResultSetCodec.readDeltaBase(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ResultSetCodec.Snapshot readSnapshot(File snapshotDir, int number) throws IOException {
+		File file = snapshotFile(snapshotDir, number);
+		String key = file.getAbsolutePath();
+		SoftReference<ResultSetCodec.Snapshot> cached = snapshotCache.get(key);
+		ResultSetCodec.Snapshot snapshot = cached == null ? null : cached.get();
+		if(snapshot == null) {
+			InputStream in = new GZIPInputStream(new FileInputStream(file));
+			try {
+				snapshot = ResultSetCodec.readSnapshot(in);
+			} finally {
+				in.close();
+			}
+			snapshotCache.put(key, new SoftReference<ResultSetCodec.Snapshot>(snapshot));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return The number of the newest snapshot at or before the given build, or -1 if there isn't one.
+	 */
+	private static int findLatestSnapshot(File snapshotDir, int buildNumber) {
+		int latest = -1;
+		String[] names = snapshotDir.list();
+		if(names != null) {
+			for (String name : names) {
+				if(name.endsWith(SNAPSHOT_EXTENSION)) {
+					try {
+						int number = Integer.parseInt(name.substring(0, name.length() - SNAPSHOT_EXTENSION.length()));
+						if(number <= buildNumber && number > latest) {
+							latest = number;
+						}
+					} catch (NumberFormatException e) {
+						log.warning("Unexpected file in " + snapshotDir + ": " + name);
+					}
+				}
+			}
+		}
+		return latest;
+	}
+
+	private static File snapshotFile(File snapshotDir, int number) {
+		return new File(snapshotDir, number + SNAPSHOT_EXTENSION);
+	}
+
+	private static File refsFile(File snapshotDir, int number) {
+		return new File(snapshotDir, number + REFS_EXTENSION);
+	}
+
+	private static void addRef(File snapshotDir, int snapshotNumber, int buildNumber) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(refsFile(snapshotDir, snapshotNumber), true), "UTF-8");
+		try {
+			writer.write(buildNumber + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void removeRef(File snapshotDir, int snapshotNumber, int buildNumber) throws IOException {
+		File refsFile = refsFile(snapshotDir, snapshotNumber);
+		Set<String> refs = new LinkedHashSet<String>();
+		if(refsFile.exists()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(refsFile), "UTF-8"));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					if(!line.trim().isEmpty()) {
+						refs.add(line.trim());
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		refs.remove(String.valueOf(buildNumber));
+
+		if(refs.isEmpty()) {
+			File snapshotFile = snapshotFile(snapshotDir, snapshotNumber);
+			snapshotCache.remove(snapshotFile.getAbsolutePath());
+			if(!snapshotFile.delete() || !refsFile.delete()) {
+				log.warning("Couldn't delete unreferenced snapshot " + snapshotFile);
+			}
+		} else {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(refsFile), "UTF-8");
+			try {
+				for (String ref : refs) {
+					writer.write(ref + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	@Extension
+	public static class ReleaseSnapshotOnDelete extends RunListener<Run> {
+		public ReleaseSnapshotOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			File deltaFile = new File(run.getRootDir(), DELTA_FILE);
+			if(!deltaFile.exists()) {
+				return;
+			}
+			try {
+				synchronized (DeltaResultStorage.class) {
+					removeRef(findSnapshotDir(run), readBaseNumber(deltaFile), run.getNumber());
+				}
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't release the result snapshot used by " + run.getFullDisplayName(), e);
+			}
+		}
+	}
+}
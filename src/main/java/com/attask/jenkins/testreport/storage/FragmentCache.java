@@ -0,0 +1,340 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.metrics.ReportMetrics;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.Extension;
+import hudson.PluginWrapper;
+import hudson.XmlFile;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rendered HTML of the parts of a completed build's report that can't change any more: the failure table and the chunks of the All Results table.
+ * Each fragment is rendered once, written next to the build, and served from there (and from a small in-memory LRU) on every later view,
+ * 	so a broken build that everyone looks at costs a file read instead of a Jelly render with every publisher.
+ *
+ * Off unless enabled on the Test Report Cache page. A fragment's file name includes a hash of the publisher configuration and the plugin version,
+ * 	so changing either renders the fragment again. The files are in the build's directory and go away with it.
+ */
+public class FragmentCache {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String FILE_NAME = "testReportFragmentCache.xml";
+	private static final String DIRECTORY = "testReportFragments";
+	private static final String EXTENSION = ".html";
+	private static final String PLUGIN_NAME = "TestReportTool";
+	public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+	private static FragmentCache instance;
+
+	private boolean enabled;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	private transient Map<String, byte[]> entries;
+	private transient long residentBytes;
+
+	private FragmentCache() {
+		entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	}
+
+	public static synchronized FragmentCache getInstance() {
+		if(instance == null) {
+			instance = new FragmentCache();
+			XmlFile file = instance.getConfigFile();
+			if(file != null && file.exists()) {
+				try {
+					file.unmarshal(instance);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Couldn't read " + file.getFile() + ". The fragment cache stays off.", e);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param kind The kind of fragment, shared by every build and chunk, which its render time is recorded under.
+	 * @param name Identifies the fragment within the build. Becomes part of a file name, so it must be safe for one.
+	 * @param configuration Everything besides the build that the fragment's HTML depends on, like the publishers' settings.
+	 * @param it The object to render the view on.
+	 * @return The fragment's HTML, encoded as UTF-8. Rendered and stored if it wasn't already.
+	 */
+	public byte[] getOrRender(Run build, String kind, String name, String configuration, Object it, String view, StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+		String fileName = name + "-" + StackTraceStore.hash(configuration + "\n" + findPluginVersion()) + EXTENSION;
+		String key = RunUtils.getRealExternalizableId(build) + "/" + fileName;
+
+		synchronized (this) {
+			byte[] html = entries.get(key);
+			if(html != null) {
+				ReportMetrics.increment("fragmentCache.hits", 1);
+				return html;
+			}
+		}
+
+		File directory = new File(build.getRootDir(), DIRECTORY);
+		File file = new File(directory, fileName);
+		byte[] html = null;
+		if(file.isFile()) {
+			try {
+				html = readFile(file);
+				ReportMetrics.increment("fragmentCache.diskHits", 1);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't read " + file + ". Rendering it again.", e);
+			}
+		}
+		if(html == null) {
+			ReportMetrics.increment("fragmentCache.misses", 1);
+			long start = System.nanoTime();
+			html = render(it, view, request, response);
+			ReportMetrics.record("render.fragment." + kind, System.nanoTime() - start);
+			try {
+				writeFile(directory, name, file, html);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't write " + file + ". It will be rendered again next time.", e);
+			}
+		}
+		put(key, html);
+		return html;
+	}
+
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public synchronized void configure(boolean enabled, long memoryBudget) throws IOException {
+		if(memoryBudget <= 0) {
+			throw new IllegalArgumentException("The budget must be positive: " + memoryBudget);
+		}
+		this.enabled = enabled;
+		this.memoryBudget = memoryBudget;
+		if(!enabled) {
+			entries.clear();
+			residentBytes = 0;
+		}
+		evict();
+		XmlFile file = getConfigFile();
+		if(file != null) {
+			file.write(this);
+		}
+	}
+
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return ReportMetrics.getCounter("fragmentCache.hits");
+	}
+
+	public long getDiskHits() {
+		return ReportMetrics.getCounter("fragmentCache.diskHits");
+	}
+
+	public long getMisses() {
+		return ReportMetrics.getCounter("fragmentCache.misses");
+	}
+
+	public synchronized void invalidate(String buildId) {
+		String prefix = buildId + "/";
+		Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<String, byte[]> entry = iterator.next();
+			if(entry.getKey().startsWith(prefix)) {
+				residentBytes -= entry.getValue().length;
+				iterator.remove();
+			}
+		}
+	}
+
+	private synchronized void put(String key, byte[] html) {
+		if(!enabled || html.length > memoryBudget) {
+			return;
+		}
+		byte[] old = entries.put(key, html);
+		if(old != null) {
+			residentBytes -= old.length;
+		}
+		residentBytes += html.length;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<byte[]> iterator = entries.values().iterator();
+		while(residentBytes > memoryBudget && iterator.hasNext()) {
+			residentBytes -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	private XmlFile getConfigFile() {
+		Jenkins jenkins = Jenkins.getInstance();
+		return jenkins == null ? null : new XmlFile(new File(jenkins.getRootDir(), FILE_NAME));
+	}
+
+	/**
+	 * Part of every fragment's hash, so upgrading the plugin (and so its views) doesn't serve HTML rendered by the old views.
+	 */
+	private static String findPluginVersion() {
+		Jenkins jenkins = Jenkins.getInstance();
+		PluginWrapper plugin = jenkins == null ? null : jenkins.getPluginManager().getPlugin(PLUGIN_NAME);
+		return plugin == null ? "" : plugin.getVersion();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first, so a concurrent reader never sees half a fragment,
+	 * 	and deletes the fragment's files for other configurations, which won't be used again.
+	 */
+	private static void writeFile(File directory, String name, File file, byte[] html) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Couldn't create " + directory);
+		}
+		File temporary = File.createTempFile("fragment-" + name, ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(temporary);
+			try {
+				out.write(html);
+			} finally {
+				out.close();
+			}
+			if(!temporary.renameTo(file) && !file.isFile()) {
+				throw new IOException("Couldn't rename " + temporary + " to " + file);
+			}
+		} finally {
+			if(temporary.exists() && !temporary.delete()) {
+				temporary.deleteOnExit();
+			}
+		}
+
+		File[] stale = directory.listFiles();
+		if(stale != null) {
+			for (File other : stale) {
+				if(other.getName().startsWith(name + "-") && other.getName().endsWith(EXTENSION) && !other.equals(file) && !other.delete()) {
+					log.fine("Couldn't delete the stale fragment " + other);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders the view the way Stapler would for a request, but into memory.
+	 * The view sees the real request, and a response that only keeps what's written to it.
+	 */
+	private static byte[] render(Object it, String view, StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CapturingResponse capture = new CapturingResponse(response, buffer);
+		StaplerResponse proxy = (StaplerResponse) Proxy.newProxyInstance(FragmentCache.class.getClassLoader(), new Class[]{StaplerResponse.class}, capture);
+		request.getView(it, view).forward(request, proxy);
+		capture.flush();
+		return buffer.toByteArray();
+	}
+
+	private static class CapturingResponse implements InvocationHandler {
+		private static final Set<String> IGNORED = new HashSet<String>(Arrays.asList(
+				"setContentType", "setCharacterEncoding", "setContentLength", "setLocale", "setBufferSize", "flushBuffer", "reset", "resetBuffer",
+				"setHeader", "addHeader", "setIntHeader", "addIntHeader", "setDateHeader", "addDateHeader", "setStatus"
+		));
+
+		private final StaplerResponse response;
+		private final ServletOutputStream out;
+		private PrintWriter writer;
+
+		CapturingResponse(StaplerResponse response, final ByteArrayOutputStream buffer) {
+			this.response = response;
+			this.out = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) {
+					buffer.write(bytes, offset, length);
+				}
+			};
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("getOutputStream") || name.equals("getCompressedOutputStream")) {
+				return out;
+			}
+			if(name.equals("getWriter") || name.equals("getCompressedWriter")) {
+				if(writer == null) {
+					writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+				}
+				return writer;
+			}
+			if(name.equals("getContentType")) {
+				return "text/html;charset=UTF-8";
+			}
+			if(name.equals("getCharacterEncoding")) {
+				return "UTF-8";
+			}
+			if(name.equals("isCommitted")) {
+				return false;
+			}
+			if(IGNORED.contains(name)) {
+				return null;
+			}
+			try {
+				return method.invoke(response, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		void flush() {
+			if(writer != null) {
+				writer.flush();
+			}
+		}
+	}
+
+	@Extension
+	public static class InvalidateOnDelete extends RunListener<Run> {
+		public InvalidateOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			getInstance().invalidate(RunUtils.getRealExternalizableId(run));
+		}
+	}
+}
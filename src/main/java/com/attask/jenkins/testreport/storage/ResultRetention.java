@@ -0,0 +1,31 @@
+package com.attask.jenkins.testreport.storage;
+
+/**
+ * How much of each passed test a TestResultAction keeps. Failed, not run and skipped tests are always kept in full.
+ */
+public enum ResultRetention {
+	/**
+	 * Every result is kept in full. This is how every build recorded before retention modes existed is stored.
+	 */
+	ALL("Keep every result"),
+
+	/**
+	 * Passed tests are kept as a compact column of names and durations.
+	 */
+	PASSED_AS_NAMES("Keep names and times of passed tests"),
+
+	/**
+	 * Only the number of passed tests is kept.
+	 */
+	PASSED_AS_COUNT("Keep only the number of passed tests");
+
+	private final String displayName;
+
+	ResultRetention(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+}
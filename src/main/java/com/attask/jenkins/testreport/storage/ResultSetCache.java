@@ -0,0 +1,212 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestResultSet;
+import com.attask.jenkins.testreport.metrics.ReportMetrics;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One cache, shared by every build, for the detailed results of builds stored with DeltaResultStorage.
+ * Jenkins keeps builds in memory for as long as it likes, so results held by the builds themselves can pile up until the heap runs out.
+ * Here they are held under a byte budget instead, and the least recently used sets are dropped and read from disk again when needed.
+ *
+ * Sizes are estimated from the number and length of the strings in each set, not measured.
+ * Results stored INLINE are part of build.xml and stay with their build, outside the budget,
+ * 	which is why TestRecorder stores new jobs' results as deltas unless told not to.
+ */
+public class ResultSetCache {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String FILE_NAME = "testReportResultSetCache.xml";
+	public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+	private static ResultSetCache instance;
+
+	/**
+	 * The only persisted setting.
+	 */
+	private long budget = DEFAULT_BUDGET;
+
+	private transient Map<String, Entry> entries;
+	private transient long residentBytes;
+
+	public interface Loader {
+		TestResultSet load() throws IOException;
+	}
+
+	private static class Entry {
+		private final TestResultSet results;
+		private final long bytes;
+
+		private Entry(TestResultSet results, long bytes) {
+			this.results = results;
+			this.bytes = bytes;
+		}
+	}
+
+	private ResultSetCache() {
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	public static synchronized ResultSetCache getInstance() {
+		if(instance == null) {
+			instance = new ResultSetCache();
+			XmlFile file = instance.getConfigFile();
+			if(file != null && file.exists()) {
+				try {
+					file.unmarshal(instance);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Couldn't read " + file.getFile() + ". Using the default budget.", e);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return The cached results, or the results from the loader, which are then cached.
+	 */
+	public TestResultSet get(String buildId, Loader loader) throws IOException {
+		synchronized (this) {
+			Entry entry = entries.get(buildId);
+			if(entry != null) {
+				ReportMetrics.increment("resultSetCache.hits", 1);
+				return entry.results;
+			}
+		}
+		ReportMetrics.increment("resultSetCache.misses", 1);
+		// Loading can take a while, so it happens outside the lock. Two requests for the same build may both load it.
+		TestResultSet results = loader.load();
+		put(buildId, results);
+		return results;
+	}
+
+	/**
+	 * Caches results that were just recorded or changed, replacing whatever was cached for the build.
+	 * A set larger than the whole budget isn't cached; the caller keeps it only as long as it needs it.
+	 */
+	public synchronized void put(String buildId, TestResultSet results) {
+		long bytes = estimateSize(results);
+		Entry old = entries.remove(buildId);
+		if(old != null) {
+			residentBytes -= old.bytes;
+		}
+		if(bytes > budget) {
+			return;
+		}
+		entries.put(buildId, new Entry(results, bytes));
+		residentBytes += bytes;
+		evict();
+	}
+
+	public synchronized void invalidate(String buildId) {
+		Entry old = entries.remove(buildId);
+		if(old != null) {
+			residentBytes -= old.bytes;
+		}
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	public synchronized void setBudget(long budget) throws IOException {
+		if(budget <= 0) {
+			throw new IllegalArgumentException("The budget must be positive: " + budget);
+		}
+		this.budget = budget;
+		evict();
+		XmlFile file = getConfigFile();
+		if(file != null) {
+			file.write(this);
+		}
+	}
+
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return ReportMetrics.getCounter("resultSetCache.hits");
+	}
+
+	public long getMisses() {
+		return ReportMetrics.getCounter("resultSetCache.misses");
+	}
+
+	public long getEvictions() {
+		return ReportMetrics.getCounter("resultSetCache.evictions");
+	}
+
+	/**
+	 * @return The fraction of lookups that were hits, or 0 before the first lookup.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(residentBytes > budget && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			residentBytes -= eldest.bytes;
+			ReportMetrics.increment("resultSetCache.evictions", 1);
+		}
+	}
+
+	private XmlFile getConfigFile() {
+		Jenkins jenkins = Jenkins.getInstance();
+		return jenkins == null ? null : new XmlFile(new File(jenkins.getRootDir(), FILE_NAME));
+	}
+
+	/**
+	 * A rough size of the set on a 64-bit JVM with compressed pointers: each result with its fields, its entries in the name map,
+	 * 	status list and shared views, and the strings only it refers to. Run ids, urls and uniquifiers are shared by every result,
+	 * 	so they aren't counted.
+	 */
+	public static long estimateSize(TestResultSet results) {
+		long bytes = 256;
+		for (TestResult result : results.getByName().values()) {
+			bytes += 72 + 48 + 8 + 4 * 4;
+			bytes += stringSize(result.getName());
+			bytes += stringSize(result.getInlineStackTrace());
+			bytes += stringSize(result.getFirstFailingBuildId());
+		}
+		return bytes;
+	}
+
+	private static long stringSize(String value) {
+		return value == null ? 0 : 40 + 2L * value.length();
+	}
+
+	@Extension
+	public static class InvalidateOnDelete extends RunListener<Run> {
+		public InvalidateOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			getInstance().invalidate(RunUtils.getRealExternalizableId(run));
+		}
+	}
+}
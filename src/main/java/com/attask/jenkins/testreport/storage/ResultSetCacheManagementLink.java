@@ -0,0 +1,102 @@
+package com.attask.jenkins.testreport.storage;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Manage Jenkins page showing how well ResultSetCache and FragmentCache are doing, and where they are configured.
+ */
+@Extension
+public class ResultSetCacheManagementLink extends ManagementLink {
+	private static final long MEGABYTE = 1024 * 1024;
+
+	@Override
+	public String getIconFileName() {
+		return "monitor.png";
+	}
+
+	public String getDisplayName() {
+		return "Test Report Cache";
+	}
+
+	@Override
+	public String getDescription() {
+		return "How much memory loaded test results and rendered reports use, and how much they may use.";
+	}
+
+	public String getUrlName() {
+		return "testReportCache";
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public ResultSetCache getCache() {
+		return ResultSetCache.getInstance();
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public FragmentCache getFragmentCache() {
+		return FragmentCache.getInstance();
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public long toMegabytes(long bytes) {
+		return (bytes + MEGABYTE / 2) / MEGABYTE;
+	}
+
+	@SuppressWarnings("UnusedDeclaration") //used in index.jelly
+	public String getHitRatePercent() {
+		return String.format("%.1f", getCache().getHitRate() * 100);
+	}
+
+	public void doConfigure(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		if(!"POST".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		long budget = parseBudget(request, response);
+		if(budget <= 0) {
+			return;
+		}
+		getCache().setBudget(budget);
+		response.sendRedirect2(".");
+	}
+
+	public void doConfigureFragments(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		if(!"POST".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		long budget = parseBudget(request, response);
+		if(budget <= 0) {
+			return;
+		}
+		getFragmentCache().configure(request.getParameter("enabled") != null, budget);
+		response.sendRedirect2(".");
+	}
+
+	/**
+	 * @return The budget parameter in bytes, or 0 after sending an error for a missing or invalid one.
+	 */
+	private static long parseBudget(StaplerRequest request, StaplerResponse response) throws IOException {
+		long budget;
+		try {
+			budget = Long.parseLong(request.getParameter("budget").trim()) * MEGABYTE;
+		} catch (RuntimeException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "budget must be a number of megabytes");
+			return 0;
+		}
+		if(budget <= 0) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "budget must be at least 1 megabyte");
+			return 0;
+		}
+		return budget;
+	}
+}
@@ -0,0 +1,367 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestStatus;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary encoding of a build's results, either as a full snapshot or as a delta against a snapshot.
+ *
+ * Repeated strings (thread ids, run ids, urls, uniquifiers, styles) are written once per stream and then referenced by index.
+ * A delta only contains the tests whose status, metadata, stack trace or quantized duration changed, plus the names of removed tests.
+ */
+public class ResultSetCodec {
+	private static final int MAGIC = 0x41545253; // "ATRS"
+	private static final byte SNAPSHOT = 1;
+	private static final byte DELTA = 2;
+
+	private static final int RUN_ID_IS_DEFAULT = 1;
+	private static final int HAS_STACK_TRACE = 2;
+	private static final int SAME_STACK_TRACE_AS_BASE = 4;
+	private static final int HAS_STACK_TRACE_KEY = 8;
+
+	/**
+	 * Durations are compared in buckets that are 5% wide. A test whose duration moved less than that is considered unchanged,
+	 * 	and is reconstructed with the duration from the snapshot.
+	 */
+	private static final double DURATION_BUCKET = Math.log(1.05);
+
+	public static class Snapshot {
+		private final String defaultRunId;
+		private final Map<String, TestResult> results;
+
+		public Snapshot(String defaultRunId, Map<String, TestResult> results) {
+			this.defaultRunId = defaultRunId;
+			this.results = results;
+		}
+
+		public String getDefaultRunId() {
+			return defaultRunId;
+		}
+
+		public Map<String, TestResult> getResults() {
+			return results;
+		}
+	}
+
+	public static void writeSnapshot(OutputStream out, String defaultRunId, Collection<TestResult> results) throws IOException {
+		Output output = new Output(out);
+		output.writeInt(MAGIC);
+		output.writeByte(SNAPSHOT);
+		output.writeString(defaultRunId);
+		output.writeVarInt(results.size());
+		for (TestResult result : results) {
+			writeRecord(output, result, defaultRunId, null);
+		}
+		output.flush();
+	}
+
+	public static Snapshot readSnapshot(InputStream in) throws IOException {
+		Input input = new Input(in);
+		readHeader(input, SNAPSHOT);
+		String defaultRunId = input.readString();
+		int count = input.readVarInt();
+		Map<String, TestResult> results = new LinkedHashMap<String, TestResult>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			TestResult result = readRecord(input, defaultRunId, null);
+			results.put(result.getName(), result);
+		}
+		return new Snapshot(defaultRunId, results);
+	}
+
+	/**
+	 * @return The number of changed plus removed tests that were written.
+	 */
+	public static int writeDelta(OutputStream out, int baseBuildNumber, Snapshot base, String defaultRunId, Collection<TestResult> results) throws IOException {
+		Set<String> removed = new LinkedHashSet<String>(base.getResults().keySet());
+		List<TestResult> changed = new ArrayList<TestResult>();
+		for (TestResult result : results) {
+			removed.remove(result.getName());
+			TestResult baseResult = base.getResults().get(result.getName());
+			if(baseResult == null || !isUnchanged(result, defaultRunId, baseResult, base.getDefaultRunId())) {
+				changed.add(result);
+			}
+		}
+
+		Output output = new Output(out);
+		output.writeInt(MAGIC);
+		output.writeByte(DELTA);
+		output.writeVarInt(baseBuildNumber);
+		output.writeString(defaultRunId);
+		output.writeVarInt(removed.size());
+		for (String name : removed) {
+			output.writeString(name);
+		}
+		output.writeVarInt(changed.size());
+		for (TestResult result : changed) {
+			writeRecord(output, result, defaultRunId, base.getResults().get(result.getName()));
+		}
+		output.flush();
+		return removed.size() + changed.size();
+	}
+
+	/**
+	 * Reads just enough of a delta to know which snapshot it's relative to.
+	 */
+	public static int readDeltaBase(InputStream in) throws IOException {
+		Input input = new Input(in);
+		readHeader(input, DELTA);
+		return input.readVarInt();
+	}
+
+	public static List<TestResult> readDelta(InputStream in, Snapshot base) throws IOException {
+		Input input = new Input(in);
+		readHeader(input, DELTA);
+		input.readVarInt(); // base build number. The caller already resolved it to get the snapshot.
+		String defaultRunId = input.readString();
+
+		Map<String, TestResult> results = new LinkedHashMap<String, TestResult>(base.getResults().size() * 4 / 3 + 1);
+		for (TestResult baseResult : base.getResults().values()) {
+			results.put(baseResult.getName(), rebase(baseResult, base.getDefaultRunId(), defaultRunId));
+		}
+
+		int removedCount = input.readVarInt();
+		for (int i = 0; i < removedCount; i++) {
+			results.remove(input.readString());
+		}
+
+		int changedCount = input.readVarInt();
+		for (int i = 0; i < changedCount; i++) {
+			TestResult result = readRecord(input, defaultRunId, base.getResults());
+			results.put(result.getName(), result);
+		}
+		return new ArrayList<TestResult>(results.values());
+	}
+
+	private static void readHeader(Input input, byte expectedType) throws IOException {
+		if(input.readInt() != MAGIC) {
+			throw new IOException("Not a stored test result set");
+		}
+		byte type = input.readByte();
+		if(type != expectedType) {
+			throw new IOException("Expected a stored result set of type " + expectedType + " but it was " + type);
+		}
+	}
+
+	private static boolean isUnchanged(TestResult result, String defaultRunId, TestResult baseResult, String baseDefaultRunId) {
+		return result.getStatus() == baseResult.getStatus()
+				&& quantize(result.getTime()) == quantize(baseResult.getTime())
+				&& result.getAge() == baseResult.getAge()
+				&& equal(result.getThreadId(), baseResult.getThreadId())
+				&& equal(result.getInlineStackTrace(), baseResult.getInlineStackTrace())
+				&& equal(result.getStackTraceKey(), baseResult.getStackTraceKey())
+				&& equal(result.getFirstFailingBuildId(), baseResult.getFirstFailingBuildId())
+				&& equal(result.getUrl(), baseResult.getUrl())
+				&& equal(result.getUniquifier(), baseResult.getUniquifier())
+				&& equal(result.getStyle(), baseResult.getStyle())
+				&& (defaultRunId.equals(result.getRunId()) ? baseDefaultRunId.equals(baseResult.getRunId()) : equal(result.getRunId(), baseResult.getRunId()));
+	}
+
+	/**
+	 * Moves an unchanged snapshot record over to the build being read.
+	 */
+	private static TestResult rebase(TestResult baseResult, String baseDefaultRunId, String defaultRunId) {
+		String runId = baseDefaultRunId.equals(baseResult.getRunId()) ? defaultRunId : baseResult.getRunId();
+		TestResult result = new TestResult(baseResult.getName(), baseResult.getTime(), baseResult.getThreadId(), baseResult.getStatus(), runId, baseResult.getInlineStackTrace(), baseResult.getAge(), baseResult.getFirstFailingBuildId(), baseResult.getUrl(), baseResult.getUniquifier());
+		result.setStyle(baseResult.getStyle());
+		if(baseResult.getStackTraceKey() != null) {
+			result.setStackTraceKey(baseResult.getStackTraceKey());
+		}
+		return result;
+	}
+
+	static int quantize(long time) {
+		if(time < 0) {
+			return -1;
+		}
+		return (int) (Math.log1p(time) / DURATION_BUCKET);
+	}
+
+	private static void writeRecord(Output output, TestResult result, String defaultRunId, TestResult baseResult) throws IOException {
+		int flags = 0;
+		if(defaultRunId.equals(result.getRunId())) {
+			flags |= RUN_ID_IS_DEFAULT;
+		}
+		String stackTrace = result.getInlineStackTrace();
+		if(stackTrace != null) {
+			if(baseResult != null && stackTrace.equals(baseResult.getInlineStackTrace())) {
+				flags |= SAME_STACK_TRACE_AS_BASE;
+			} else {
+				flags |= HAS_STACK_TRACE;
+			}
+		}
+		if(result.getStackTraceKey() != null) {
+			flags |= HAS_STACK_TRACE_KEY;
+		}
+
+		output.writeString(result.getName());
+		output.writeByte((byte) result.getStatus().ordinal());
+		output.writeVarLong(Math.max(-1, result.getTime()) + 1);
+		output.writeVarInt(flags);
+		output.writePooled(result.getThreadId());
+		if((flags & RUN_ID_IS_DEFAULT) == 0) {
+			output.writePooled(result.getRunId());
+		}
+		if((flags & HAS_STACK_TRACE) != 0) {
+			output.writeString(stackTrace);
+		}
+		if((flags & HAS_STACK_TRACE_KEY) != 0) {
+			output.writePooled(result.getStackTraceKey());
+		}
+		output.writeVarInt(Math.max(0, result.getAge()));
+		output.writePooled(result.getFirstFailingBuildId());
+		output.writePooled(result.getUrl());
+		output.writePooled(result.getUniquifier());
+		output.writePooled(result.getStyle());
+	}
+
+	private static TestResult readRecord(Input input, String defaultRunId, Map<String, TestResult> baseResults) throws IOException {
+		String name = input.readString();
+		TestStatus status = TestStatus.values()[input.readByte()];
+		long time = input.readVarLong() - 1;
+		int flags = input.readVarInt();
+		String threadId = input.readPooled();
+		String runId = (flags & RUN_ID_IS_DEFAULT) != 0 ? defaultRunId : input.readPooled();
+		String stackTrace = null;
+		if((flags & HAS_STACK_TRACE) != 0) {
+			stackTrace = input.readString();
+		} else if((flags & SAME_STACK_TRACE_AS_BASE) != 0) {
+			TestResult baseResult = baseResults == null ? null : baseResults.get(name);
+			if(baseResult == null) {
+				throw new IOException("Delta refers to the stack trace of " + name + " but the snapshot doesn't have it.");
+			}
+			stackTrace = baseResult.getInlineStackTrace();
+		}
+		String stackTraceKey = (flags & HAS_STACK_TRACE_KEY) != 0 ? input.readPooled() : null;
+		int age = input.readVarInt();
+		String firstFailingBuildId = input.readPooled();
+		String url = input.readPooled();
+		String uniquifier = input.readPooled();
+		String style = input.readPooled();
+
+		TestResult result = new TestResult(name, time, threadId, status, runId, stackTrace, age, firstFailingBuildId, url, uniquifier);
+		result.setStyle(style);
+		if(stackTraceKey != null) {
+			result.setStackTraceKey(stackTraceKey);
+		}
+		return result;
+	}
+
+	private static boolean equal(String first, String second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	private static class Output {
+		private final DataOutputStream out;
+		private final Map<String, Integer> pool = new HashMap<String, Integer>();
+
+		private Output(OutputStream out) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		void writeInt(int value) throws IOException {
+			out.writeInt(value);
+		}
+
+		void writeByte(byte value) throws IOException {
+			out.writeByte(value);
+		}
+
+		void writeVarInt(int value) throws IOException {
+			writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		void writeVarLong(long value) throws IOException {
+			while((value & ~0x7FL) != 0) {
+				out.writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.writeByte((int) value);
+		}
+
+		void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes("UTF-8");
+			writeVarInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * 0 is null, 1 is a new string that follows inline, n >= 2 is a reference to the (n-2)th pooled string.
+		 */
+		void writePooled(String value) throws IOException {
+			if(value == null) {
+				writeVarInt(0);
+				return;
+			}
+			Integer index = pool.get(value);
+			if(index != null) {
+				writeVarInt(index + 2);
+			} else {
+				pool.put(value, pool.size());
+				writeVarInt(1);
+				writeString(value);
+			}
+		}
+
+		void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	private static class Input {
+		private final DataInputStream in;
+		private final List<String> pool = new ArrayList<String>();
+
+		private Input(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+		}
+
+		int readInt() throws IOException {
+			return in.readInt();
+		}
+
+		byte readByte() throws IOException {
+			return in.readByte();
+		}
+
+		int readVarInt() throws IOException {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() throws IOException {
+			long result = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if(shift > 63) {
+					throw new IOException("Malformed varint");
+				}
+				b = in.readByte();
+				result |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while((b & 0x80) != 0);
+			return result;
+		}
+
+		String readString() throws IOException {
+			byte[] bytes = new byte[readVarInt()];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+
+		String readPooled() throws IOException {
+			int code = readVarInt();
+			if(code == 0) {
+				return null;
+			}
+			if(code == 1) {
+				String value = readString();
+				pool.add(value);
+				return value;
+			}
+			return pool.get(code - 2);
+		}
+	}
+}
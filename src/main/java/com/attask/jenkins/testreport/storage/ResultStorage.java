@@ -0,0 +1,16 @@
+package com.attask.jenkins.testreport.storage;
+
+/**
+ * Where a TestResultAction keeps its detailed results.
+ */
+public enum ResultStorage {
+	/**
+	 * Serialized along with the action in build.xml. This is how every build recorded before storage modes existed is stored.
+	 */
+	INLINE,
+
+	/**
+	 * Stored by DeltaResultStorage as a delta against a periodic snapshot, and loaded on demand.
+	 */
+	DELTA
+}
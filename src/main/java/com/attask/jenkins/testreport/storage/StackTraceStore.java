@@ -0,0 +1,404 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.utils.RunUtils;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed store of a job's stack traces.
+ * A flaky environment produces the same trace for hundreds of tests, build after build, so each distinct trace is stored once per job,
+ * 	keyed by the SHA-1 of its normalized text, and TestResult only keeps the key.
+ *
+ * Every build that interns traces writes a refs file listing the keys it uses, and each trace has a count of the builds that use it.
+ * When a build is deleted its refs file is removed, the counts of its traces go down, and a trace whose count reaches zero is deleted.
+ * So deleting a build only touches that build's traces, however big the store is.
+ *
+ * Counts only ever err high: they go up before a build's refs are written and down after its refs are removed,
+ * 	so a crash in between leaves a trace behind rather than deleting one that's still used.
+ */
+public class StackTraceStore {
+	private static final Logger log = Logger.getLogger("TestReportTool");
+	private static final String STORE_DIR = "testReportStackTraces";
+	private static final String REFS_DIR = "refs";
+	private static final String TRACE_EXTENSION = ".txt.gz";
+	private static final String COUNT_EXTENSION = ".count";
+
+	/**
+	 * Present once every trace has a count. Stores written before there were counts get theirs from one sweep of the refs.
+	 */
+	private static final String COUNTED_FILE = "counted";
+	private static final int CACHE_SIZE = 1000;
+
+	private static final Map<Job, StackTraceStore> stores = Collections.synchronizedMap(new WeakHashMap<Job, StackTraceStore>());
+
+	private final File directory;
+
+	/**
+	 * The report shows the same few traces over and over, so keep the most recently used ones in memory.
+	 */
+	private final Map<String, String> cache = new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private StackTraceStore(File directory) {
+		this.directory = directory;
+	}
+
+	public static StackTraceStore forJob(Job<?, ?> job) {
+		synchronized (stores) {
+			StackTraceStore store = stores.get(job);
+			if(store == null) {
+				store = new StackTraceStore(new File(job.getRootDir(), STORE_DIR));
+				stores.put(job, store);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Resolves a key stored on a TestResult.
+	 * @param runId The run that recorded the result. Its job owns the store.
+	 * @return The stack trace, or null if the run or the trace no longer exists.
+	 */
+	public static String resolve(String runId, String key) {
+		Run run = RunUtils.findRun(runId);
+		if(run == null) {
+			return null;
+		}
+		return forJob(run.getParent()).get(key);
+	}
+
+	/**
+	 * Moves the stack trace of every result into the store, leaving only the key on the result.
+	 */
+	public synchronized void intern(int buildNumber, Collection<TestResult> results) throws IOException {
+		Map<String, String> traces = new LinkedHashMap<String, String>();
+		Map<TestResult, String> keys = new IdentityHashMap<TestResult, String>();
+		for (TestResult result : results) {
+			String stackTrace = result.getInlineStackTrace();
+			if(stackTrace != null && !stackTrace.trim().isEmpty()) {
+				String normalized = normalize(stackTrace);
+				String key = hash(normalized);
+				traces.put(key, normalized);
+				keys.put(result, key);
+			}
+		}
+		if(traces.isEmpty()) {
+			return;
+		}
+		ensureCounted();
+
+		// A build can intern more than once. Only the keys it didn't already refer to count again.
+		File refsFile = refsFile(buildNumber);
+		Set<String> newKeys = new LinkedHashSet<String>(traces.keySet());
+		if(refsFile.exists()) {
+			newKeys.removeAll(readLines(refsFile));
+		}
+		for (String key : newKeys) {
+			File file = traceFile(key);
+			if(!file.exists()) {
+				write(file, traces.get(key));
+				writeCount(key, 1);
+			} else {
+				writeCount(key, readCount(key) + 1);
+			}
+		}
+		writeRefs(buildNumber, newKeys);
+		cache.putAll(traces);
+		for (Map.Entry<TestResult, String> entry : keys.entrySet()) {
+			entry.getKey().setStackTraceKey(entry.getValue());
+		}
+	}
+
+	/**
+	 * @return The stack trace with the given key, or null if it isn't in the store.
+	 */
+	public synchronized String get(String key) {
+		String stackTrace = cache.get(key);
+		if(stackTrace == null) {
+			File file = traceFile(key);
+			if(!file.exists()) {
+				log.warning("Stack trace " + key + " is missing from " + directory);
+				return null;
+			}
+			try {
+				stackTrace = read(file);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't read stack trace " + file, e);
+				return null;
+			}
+			cache.put(key, stackTrace);
+		}
+		return stackTrace;
+	}
+
+	/**
+	 * Drops the build's references and deletes every trace that no other build refers to any more.
+	 */
+	public synchronized void release(int buildNumber) throws IOException {
+		File refsFile = refsFile(buildNumber);
+		if(!refsFile.exists()) {
+			return;
+		}
+		ensureCounted();
+		Set<String> keys = new LinkedHashSet<String>(readLines(refsFile));
+		if(!refsFile.delete()) {
+			throw new IOException("Couldn't delete " + refsFile);
+		}
+
+		for (String key : keys) {
+			int count = readCount(key) - 1;
+			if(count > 0) {
+				writeCount(key, count);
+				continue;
+			}
+			cache.remove(key);
+			File traceFile = traceFile(key);
+			if(traceFile.exists() && !traceFile.delete()) {
+				log.warning("Couldn't delete unreferenced stack trace " + traceFile);
+				continue;
+			}
+			if(!countFile(key).delete()) {
+				log.warning("Couldn't delete the count of " + traceFile);
+			}
+		}
+	}
+
+	/**
+	 * Gives every trace its count, if this store was written before there were counts.
+	 * Traces that no build refers to are deleted, which is what the last release used to do.
+	 */
+	private void ensureCounted() throws IOException {
+		File countedFile = new File(directory, COUNTED_FILE);
+		if(countedFile.exists()) {
+			return;
+		}
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		File[] refsFiles = new File(directory, REFS_DIR).listFiles();
+		if(refsFiles != null) {
+			for (File file : refsFiles) {
+				for (String key : new HashSet<String>(readLines(file))) {
+					Integer count = counts.get(key);
+					counts.put(key, count == null ? 1 : count + 1);
+				}
+			}
+		}
+
+		File[] buckets = directory.listFiles();
+		if(buckets != null) {
+			for (File bucket : buckets) {
+				if(!bucket.isDirectory() || bucket.getName().equals(REFS_DIR)) {
+					continue;
+				}
+				File[] traceFiles = bucket.listFiles();
+				if(traceFiles == null) {
+					continue;
+				}
+				for (File traceFile : traceFiles) {
+					String name = traceFile.getName();
+					if(!name.endsWith(TRACE_EXTENSION)) {
+						continue;
+					}
+					String key = name.substring(0, name.length() - TRACE_EXTENSION.length());
+					Integer count = counts.get(key);
+					if(count != null) {
+						writeCount(key, count);
+					} else if(!traceFile.delete()) {
+						log.warning("Couldn't delete unreferenced stack trace " + traceFile);
+					}
+				}
+			}
+		}
+
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Couldn't create " + directory);
+		}
+		if(!countedFile.createNewFile() && !countedFile.exists()) {
+			throw new IOException("Couldn't create " + countedFile);
+		}
+	}
+
+	/**
+	 * Line endings and trailing whitespace differ between otherwise identical traces, so they don't take part in the hash.
+	 */
+	static String normalize(String stackTrace) {
+		StringBuilder sb = new StringBuilder(stackTrace.length());
+		for (String line : stackTrace.split("\r?\n")) {
+			int end = line.length();
+			while(end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+				end--;
+			}
+			sb.append(line, 0, end).append('\n');
+		}
+		int end = sb.length();
+		while(end > 0 && sb.charAt(end - 1) == '\n') {
+			end--;
+		}
+		sb.setLength(end);
+		return sb.append('\n').toString();
+	}
+
+	static String hash(String normalized) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return Util.toHexString(digest.digest(normalized.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is required by every JVM", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is required by every JVM", e);
+		}
+	}
+
+	private File traceFile(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key + TRACE_EXTENSION);
+	}
+
+	private File countFile(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key + COUNT_EXTENSION);
+	}
+
+	private File refsFile(int buildNumber) {
+		return new File(new File(directory, REFS_DIR), String.valueOf(buildNumber));
+	}
+
+	/**
+	 * @return The number of builds that refer to the trace, or 0 if it has no count.
+	 */
+	private int readCount(String key) throws IOException {
+		File file = countFile(key);
+		if(!file.exists()) {
+			return 0;
+		}
+		List<String> lines = readLines(file);
+		try {
+			return lines.isEmpty() ? 0 : Integer.parseInt(lines.get(0).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("The count in " + file + " isn't a number: " + lines.get(0));
+		}
+	}
+
+	private void writeCount(String key, int count) throws IOException {
+		File file = countFile(key);
+		File parent = file.getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Couldn't create " + parent);
+		}
+		File temp = new File(parent, file.getName() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+		try {
+			writer.write(count + "\n");
+		} finally {
+			writer.close();
+		}
+		if(!temp.renameTo(file)) {
+			// Windows won't rename over an existing file.
+			if(!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Couldn't move " + temp + " to " + file);
+			}
+		}
+	}
+
+	private void writeRefs(int buildNumber, Collection<String> keys) throws IOException {
+		if(keys.isEmpty()) {
+			return;
+		}
+		File refsFile = refsFile(buildNumber);
+		File refsDir = refsFile.getParentFile();
+		if(!refsDir.isDirectory() && !refsDir.mkdirs()) {
+			throw new IOException("Couldn't create " + refsDir);
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(refsFile, true), "UTF-8");
+		try {
+			for (String key : keys) {
+				writer.write(key);
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void write(File file, String stackTrace) throws IOException {
+		File parent = file.getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Couldn't create " + parent);
+		}
+		File temp = new File(parent, file.getName() + ".tmp");
+		Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp)), "UTF-8");
+		try {
+			writer.write(stackTrace);
+		} finally {
+			writer.close();
+		}
+		if(!temp.renameTo(file) && !file.exists()) {
+			throw new IOException("Couldn't move " + temp + " to " + file);
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8");
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while((read = reader.read(buffer)) >= 0) {
+				sb.append(buffer, 0, read);
+			}
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.isEmpty()) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Extension
+	public static class ReleaseOnDelete extends RunListener<Run> {
+		public ReleaseOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			if(!new File(run.getParent().getRootDir(), STORE_DIR).isDirectory()) {
+				return;
+			}
+			try {
+				forJob(run.getParent()).release(run.getNumber());
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't release the stack traces used by " + run.getFullDisplayName(), e);
+			}
+		}
+	}
+}
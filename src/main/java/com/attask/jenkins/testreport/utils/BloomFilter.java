@@ -0,0 +1,86 @@
+package com.attask.jenkins.testreport.utils;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A Bloom filter of strings: mightContain never returns false for an added string, and returns true for other strings
+ * 	with roughly the false positive rate it was sized for.
+ *
+ * The bits are a byte[] so XStream stores them as a single base64 string.
+ */
+public class BloomFilter {
+	private final byte[] bits;
+	private final int hashCount;
+
+	private BloomFilter(byte[] bits, int hashCount) {
+		this.bits = bits;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * @param expectedEntries How many strings will be added.
+	 * @param falsePositiveRate The desired chance of mightContain returning true for a string that wasn't added, e.g. 0.01.
+	 */
+	public static BloomFilter create(int expectedEntries, double falsePositiveRate) {
+		int entries = Math.max(1, expectedEntries);
+		long bitCount = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bitCount = Math.max(64, Math.min(bitCount, Integer.MAX_VALUE - 7L));
+		int hashCount = Math.max(1, (int) Math.round((double) bitCount / entries * Math.log(2)));
+		return new BloomFilter(new byte[(int) ((bitCount + 7) / 8)], hashCount);
+	}
+
+	public void add(String value) {
+		long hash = hash(value);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		long bitCount = bits.length * 8L;
+		for (int i = 0; i < hashCount; i++) {
+			int bit = (int) (((first + (long) i * second) & Long.MAX_VALUE) % bitCount);
+			bits[bit >>> 3] |= (byte) (1 << (bit & 7));
+		}
+	}
+
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		long bitCount = bits.length * 8L;
+		for (int i = 0; i < hashCount; i++) {
+			int bit = (int) (((first + (long) i * second) & Long.MAX_VALUE) % bitCount);
+			if((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The size of the filter in bytes.
+	 */
+	public int size() {
+		return bits.length;
+	}
+
+	/**
+	 * 64-bit FNV-1a over the UTF-8 bytes, then a final avalanche so both halves can be used as independent hashes.
+	 */
+	private static long hash(String value) {
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is required by every JVM", e);
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
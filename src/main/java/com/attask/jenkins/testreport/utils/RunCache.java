@@ -0,0 +1,132 @@
+package com.attask.jenkins.testreport.utils;
+
+import hudson.Extension;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches externalizable id to Run lookups. The report pages resolve the same handful of ids once per row,
+ * 	so without the cache a matrix report with thousands of rows scans MatrixBuild.getRuns() thousands of times.
+ *
+ * Runs are only held weakly so the cache never keeps a build in memory that Jenkins would otherwise unload.
+ * Entries are dropped when the build is deleted.
+ * The cache is shared by every user, so a cached run is only returned if the current user can read its job,
+ * 	as Run.fromExternalizableId would have checked.
+ */
+public class RunCache {
+	/**
+	 * Once this many ids are cached, entries whose runs have been garbage collected are purged.
+	 */
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private static final ConcurrentMap<String, WeakReference<Run>> runs = new ConcurrentHashMap<String, WeakReference<Run>>();
+
+	/**
+	 * Matrix parent externalizable id to (child externalizable id to child run).
+	 */
+	private static final ConcurrentMap<String, Map<String, WeakReference<MatrixRun>>> matrixChildren = new ConcurrentHashMap<String, Map<String, WeakReference<MatrixRun>>>();
+
+	/**
+	 * @return The run with the given externalizable id, or null if there is no such run.
+	 */
+	public static Run findRun(String id) {
+		Run run = dereference(runs.get(id));
+		if(run == null) {
+			run = Run.fromExternalizableId(id);
+			if(run != null) {
+				put(id, run);
+			}
+			return run;
+		}
+		return readable(run);
+	}
+
+	/**
+	 * @return The run of the matrix build with the id parentId whose own externalizable id is childId,
+	 * 			or null if there is no such run.
+	 */
+	public static MatrixRun findMatrixRun(String parentId, String childId) {
+		Map<String, WeakReference<MatrixRun>> children = matrixChildren.get(parentId);
+		MatrixRun result = children == null ? null : dereference(children.get(childId));
+		if(result != null) {
+			return readable(result);
+		}
+
+		// Either the parent hasn't been indexed yet, the child was collected, or the child started after the parent was indexed.
+		Run parent = findRun(parentId);
+		if(!(parent instanceof MatrixBuild)) {
+			return null;
+		}
+		children = indexChildren((MatrixBuild) parent);
+		matrixChildren.put(parentId, children);
+		return dereference(children.get(childId));
+	}
+
+	public static void invalidate(Run run) {
+		if(run == null) {
+			return;
+		}
+		String id = run.getExternalizableId();
+		runs.remove(id);
+		matrixChildren.remove(id);
+		if(run instanceof MatrixRun) {
+			MatrixBuild parentBuild = ((MatrixRun) run).getParentBuild();
+			if(parentBuild != null) {
+				matrixChildren.remove(parentBuild.getExternalizableId());
+			}
+		}
+	}
+
+	private static Map<String, WeakReference<MatrixRun>> indexChildren(MatrixBuild parent) {
+		List<MatrixRun> children = parent.getRuns();
+		Map<String, WeakReference<MatrixRun>> result = new HashMap<String, WeakReference<MatrixRun>>(children.size() * 2);
+		for (MatrixRun child : children) {
+			result.put(child.getExternalizableId(), new WeakReference<MatrixRun>(child));
+		}
+		return result;
+	}
+
+	private static void put(String id, Run run) {
+		if(runs.size() >= PURGE_THRESHOLD) {
+			for (Map.Entry<String, WeakReference<Run>> entry : runs.entrySet()) {
+				if(entry.getValue().get() == null) {
+					runs.remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		runs.put(id, new WeakReference<Run>(run));
+	}
+
+	/**
+	 * @return The run, or null if the current user can't read its job.
+	 */
+	private static <T extends Run> T readable(T run) {
+		return run.getParent().hasPermission(Item.READ) ? run : null;
+	}
+
+	private static <T> T dereference(WeakReference<T> reference) {
+		return reference == null ? null : reference.get();
+	}
+
+	@Extension
+	public static class InvalidateOnDelete extends RunListener<Run> {
+		public InvalidateOnDelete() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			invalidate(run);
+		}
+	}
+}
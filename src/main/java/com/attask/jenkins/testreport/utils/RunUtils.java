@@ -2,10 +2,8 @@ package com.attask.jenkins.testreport.utils;
 
 import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixRun;
-import hudson.model.AbstractBuild;
 import hudson.model.Run;
 
-import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -30,7 +28,7 @@ public class RunUtils {
 			return null;
 		}
 		if(!id.contains("$$")) {
-			return AbstractBuild.fromExternalizableId(id);
+			return RunCache.findRun(id);
 		}
 
 		String[] ids = id.split("\\$\\$", 2);
@@ -47,16 +45,9 @@ public class RunUtils {
 			return null;
 		}
 
-		Run<?, ?> run = Run.fromExternalizableId(parentMatrixId);
-		if(run != null) {
-			if(run instanceof MatrixBuild) {
-				List<MatrixRun> runs = ((MatrixBuild) run).getRuns();
-				for (MatrixRun matrixRun : runs) {
-					if(matrixRun.getExternalizableId().equals(childMatrixId)) {
-						return matrixRun;
-					}
-				}
-			}
+		MatrixRun matrixRun = RunCache.findMatrixRun(parentMatrixId, childMatrixId);
+		if(matrixRun != null) {
+			return matrixRun;
 		}
 		log.warning("Couldn't find build for id: " + id);
 		return null;
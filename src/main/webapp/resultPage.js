@@ -9,13 +9,18 @@ ResultPage = {
 		$('TestResultList').observe('click', ResultPage.onFailureTableClicked);
 	},
 
+	rowsPerRequest: 500,
+
 	onShowAllClicked: function() {
 		var url = window.location;
 		new Ajax.Request(url+'allTests', {
 			method: 'post',
 			evalJS: 'false',
 			onSuccess: function(t) {
-				$$('.allResults').first().innerHTML = t.responseText;
+				var container = $$('.allResults').first();
+				container.innerHTML = t.responseText;
+				var table = container.down('table');
+				ResultPage.loadRows(table, container.down('.allResultsProgress'), 0);
 			},
 			onError: function(t) {
 				console.log("Ajax Fail", t);
@@ -23,6 +28,63 @@ ResultPage = {
 		});
 	},
 
+	/**
+	 * Fetches the rows of the All Results table a chunk at a time and appends each chunk as it arrives,
+	 * so the first rows show up right away and neither the server nor the browser handles every row at once.
+	 */
+	loadRows: function(table, progress, start) {
+		var url = window.location;
+		var parameters = {start: start, count: ResultPage.rowsPerRequest};
+		// A running build's results are parsed again every few seconds. Every chunk has to come from the parse the table started with.
+		var snapshot = table.getAttribute('data-snapshot');
+		if(snapshot && snapshot != '0') {
+			parameters.snapshot = snapshot;
+		}
+		new Ajax.Request(url+'allTestsRows', {
+			method: 'get',
+			parameters: parameters,
+			evalJS: 'false',
+			onSuccess: function(t) {
+				var added = ResultPage.appendRows(table, t.responseText);
+				var loaded = start + added;
+				if(added < ResultPage.rowsPerRequest) {
+					progress.remove();
+					return;
+				}
+				progress.innerHTML = "Loaded " + loaded + " of " + table.getAttribute('data-total') + "...";
+				// Yield to the browser between chunks so the page stays responsive while the rest loads.
+				setTimeout(function() {
+					ResultPage.loadRows(table, progress, loaded);
+				}, 0);
+			},
+			on409: function(t) {
+				// That parse is gone, so the rows loaded so far can't be continued. Start over from the latest one.
+				ResultPage.onShowAllClicked();
+			},
+			onError: function(t) {
+				console.log("Ajax Fail", t);
+			}
+		});
+	},
+
+	/**
+	 * Rows can't be parsed on their own, so they're parsed inside a scratch table and moved into the real one in one fragment.
+	 * @return The number of rows added.
+	 */
+	appendRows: function(table, html) {
+		var scratch = document.createElement('div');
+		scratch.innerHTML = '<table><tbody>' + html + '</tbody></table>';
+		var rows = scratch.getElementsByTagName('tbody')[0].rows;
+		var fragment = document.createDocumentFragment();
+		var added = 0;
+		while(rows.length > 0) {
+			fragment.appendChild(rows[0]);
+			added++;
+		}
+		table.tBodies[0].appendChild(fragment);
+		return added;
+	},
+
 	onFailureTableClicked: function(e) {
 		if(e && e.target && e.target.hasClassName('showStackTrace')) {
 			ResultPage.onStackTraceClicked(e, e.target);
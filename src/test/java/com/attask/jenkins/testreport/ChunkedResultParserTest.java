@@ -0,0 +1,204 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import hudson.FilePath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses files in chunks far smaller than the real ones, so most cuts land inside stack traces and most tests span chunks,
+ * 	and checks that the results and their order are exactly those of a sequential parse.
+ */
+public class ChunkedResultParserTest {
+	private static final String RUN_ID = "job#1";
+	private static final String URL = "http://example.com/tests/";
+	private static final String UNIQUIFIER = "linux";
+	private static final long[] CHUNK_SIZES = {1, 7, 13, 64, 100, 257, 1000};
+
+	private File file;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("chunkedResultParser", ".results");
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		if(!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	@Test
+	public void cutsInsideStackTracesMoveToTheNextTestLine() throws Exception {
+		StringBuilder content = new StringBuilder("AtTask Failures v2\n");
+		for (int i = 0; i < 30; i++) {
+			content.append("started com.example.Test").append(i).append(".test\n");
+			if(i % 3 == 0) {
+				content.append("failed com.example.Test").append(i).append(".test thread-").append(i % 4).append(' ').append(i * 11).append('\n');
+				content.append("java.lang.AssertionError: expected:<").append(i).append("> but was:<").append(i + 1).append(">\n");
+				// Lines that look a little like test lines, but aren't, stay part of the trace.
+				content.append("Failed to connect to the database\n");
+				content.append("finishedness is not a status\n");
+				content.append("\n");
+				for (int frame = 0; frame < 5; frame++) {
+					content.append("\tat com.example.Test").append(i).append(".frame").append(frame).append("(Test").append(i).append(".java:").append(frame + 10).append(")\n");
+				}
+			} else {
+				content.append("finished com.example.Test").append(i).append(".test thread-").append(i % 4).append(' ').append(i * 11).append('\n');
+			}
+		}
+		write(content.toString());
+
+		for (long chunkSize : CHUNK_SIZES) {
+			long[] bounds = ChunkedResultParser.findChunkBoundsBySize(file, chunkSize);
+			assertBoundsAreTestLines(bounds);
+			assertSameAsSequential(chunkSize, bounds);
+		}
+		assertTrue(ChunkedResultParser.findChunkBoundsBySize(file, 64L).length > 10);
+	}
+
+	@Test
+	public void duplicateNamesAcrossChunksKeepTheMostInterestingStatus() throws Exception {
+		StringBuilder content = new StringBuilder("AtTask Failures v2\n");
+		content.append("added com.example.Slow.test\n");
+		content.append("started com.example.Slow.test\n");
+		content.append("failed com.example.Flaky.test thread-1 5\n");
+		content.append("java.lang.AssertionError: flaky\n\tat com.example.Flaky.test(Flaky.java:2)\n");
+		content.append("finished com.example.Retried.test thread-1 6\n");
+		content.append("failed com.example.Twice.test thread-2 7\n");
+		content.append("java.lang.AssertionError: first\n\tat com.example.Twice.test(Twice.java:1)\n");
+		for (int i = 0; i < 40; i++) {
+			content.append("finished com.example.Filler").append(i).append(".test thread-3 ").append(i).append('\n');
+		}
+		content.append("finished com.example.Flaky.test thread-1 9\n");
+		content.append("failed com.example.Retried.test thread-1 10\n");
+		content.append("java.lang.AssertionError: retried\n\tat com.example.Retried.test(Retried.java:2)\n");
+		content.append("failed com.example.Twice.test thread-2 8\n");
+		content.append("java.lang.AssertionError: second\n\tat com.example.Twice.test(Twice.java:3)\n");
+		content.append("finished com.example.Slow.test thread-4 1000\n");
+		write(content.toString());
+
+		for (long chunkSize : CHUNK_SIZES) {
+			long[] bounds = ChunkedResultParser.findChunkBoundsBySize(file, chunkSize);
+			Map<String, TestResult> results = byName(assertSameAsSequential(chunkSize, bounds));
+
+			assertEquals(44, results.size());
+			assertEquals(TestStatus.FINISHED, results.get("com.example.Slow.test").getStatus());
+			assertEquals(1000, results.get("com.example.Slow.test").getTime());
+			// A pass outranks a failure, whichever chunk either is in.
+			assertEquals(TestStatus.FINISHED, results.get("com.example.Flaky.test").getStatus());
+			assertEquals(9, results.get("com.example.Flaky.test").getTime());
+			assertEquals(TestStatus.FINISHED, results.get("com.example.Retried.test").getStatus());
+			assertEquals(6, results.get("com.example.Retried.test").getTime());
+			// Of two results with the same status, the first one wins.
+			assertEquals("java.lang.AssertionError: first\n\tat com.example.Twice.test(Twice.java:1)\n", results.get("com.example.Twice.test").getInlineStackTrace());
+			assertEquals(7, results.get("com.example.Twice.test").getTime());
+		}
+		assertTrue(ChunkedResultParser.findChunkBoundsBySize(file, 64L).length > 5);
+	}
+
+	@Test
+	public void windowsLineEndingsAndTrailingBlankLines() throws Exception {
+		StringBuilder content = new StringBuilder("AtTask Failures v2\r\n");
+		for (int i = 0; i < 10; i++) {
+			content.append("failed com.example.Test").append(i).append(".test thread-1 ").append(i).append("\r\n");
+			content.append("java.lang.IllegalStateException\r\n\r\n\tat com.example.Test").append(i).append(".test(Test.java:").append(i).append(")\r\n\r\n");
+		}
+		content.append("\r\n\n\r\n");
+		write(content.toString());
+
+		for (long chunkSize : CHUNK_SIZES) {
+			long[] bounds = ChunkedResultParser.findChunkBoundsBySize(file, chunkSize);
+			assertBoundsAreTestLines(bounds);
+			List<TestResult> results = assertSameAsSequential(chunkSize, bounds);
+			assertEquals(10, results.size());
+			// The blank lines inside a trace are kept, and only the ones at the end of the file are dropped.
+			assertEquals("java.lang.IllegalStateException\n\n\tat com.example.Test9.test(Test.java:9)\n", results.get(9).getInlineStackTrace());
+		}
+	}
+
+	@Test
+	public void aFileWithoutTestLinesIsOneChunk() throws Exception {
+		write("AtTask Failures v2\n");
+		long[] bounds = ChunkedResultParser.findChunkBoundsBySize(file, 1);
+		assertEquals(2, bounds.length);
+		assertEquals(0, assertSameAsSequential(1, bounds).size());
+	}
+
+	private void write(String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Every cut but the first must be at the start of a line that ends a stack trace.
+	 */
+	private void assertBoundsAreTestLines(long[] bounds) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			assertEquals(0, bounds[0]);
+			assertEquals(file.length(), bounds[bounds.length - 1]);
+			for (int i = 1; i + 1 < bounds.length; i++) {
+				assertTrue(bounds[i] > bounds[i - 1]);
+				in.seek(bounds[i] - 1);
+				assertEquals('\n', in.read());
+				assertTrue("Not a test line at " + bounds[i] + ": " + in.readLine(), TestResult.checkIsTestLine(readLine(in, bounds[i])));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String readLine(RandomAccessFile in, long position) throws IOException {
+		in.seek(position);
+		String line = in.readLine();
+		return line == null ? "" : line;
+	}
+
+	private List<TestResult> assertSameAsSequential(long chunkSize, long[] bounds) throws Exception {
+		FilePath filePath = new FilePath(file);
+		Map<TestResult, TestStatus> expected = new LinkedHashMap<TestResult, TestStatus>();
+		TestResult.parseLines(null, filePath, ResultFileReader.readLines(filePath, false), 0, null, RUN_ID, UNIQUIFIER, URL, new RecordingStats(), false, expected);
+
+		List<TestResult> actual = new ArrayList<TestResult>(ChunkedResultParser.parseChunks(null, filePath, file, bounds, executor, RUN_ID, UNIQUIFIER, URL, new RecordingStats()));
+		assertEquals("Results with chunks of " + chunkSize, expected.size(), actual.size());
+		int index = 0;
+		for (TestResult expectedResult : expected.keySet()) {
+			TestResult result = actual.get(index++);
+			String message = "Result " + index + " with chunks of " + chunkSize;
+			assertEquals(message, expectedResult.getName(), result.getName());
+			assertEquals(message, expectedResult.getStatus(), result.getStatus());
+			assertEquals(message, expectedResult.getTime(), result.getTime());
+			assertEquals(message, expectedResult.getThreadId(), result.getThreadId());
+			assertEquals(message, expectedResult.getInlineStackTrace(), result.getInlineStackTrace());
+			assertEquals(message, expectedResult.getRunId(), result.getRunId());
+			assertEquals(message, expectedResult.getUrl(), result.getUrl());
+			assertEquals(message, expectedResult.getUniquifier(), result.getUniquifier());
+		}
+		return actual;
+	}
+
+	private static Map<String, TestResult> byName(List<TestResult> results) {
+		Map<String, TestResult> byName = new HashMap<String, TestResult>();
+		for (TestResult result : results) {
+			byName.put(result.getName(), result);
+		}
+		return byName;
+	}
+}
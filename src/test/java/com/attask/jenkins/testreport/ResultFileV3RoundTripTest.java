@@ -0,0 +1,219 @@
+package com.attask.jenkins.testreport;
+
+import com.attask.jenkins.testreport.format.ResultFileConverter;
+import com.attask.jenkins.testreport.format.ResultFileV3;
+import com.attask.jenkins.testreport.format.ResultFileV3Reader;
+import com.attask.jenkins.testreport.format.ResultFileV3Writer;
+import com.attask.jenkins.testreport.format.ResultRecord;
+import com.attask.jenkins.testreport.metrics.RecordingStats;
+import hudson.FilePath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Converts v2 files to v3 and checks that parsing the v3 file gives exactly what parsing the v2 file does,
+ * 	and that a v3 file still being written can be cut anywhere.
+ */
+public class ResultFileV3RoundTripTest {
+	private static final String RUN_ID = "job#1";
+	private static final String URL = "http://example.com/tests/";
+	private static final String UNIQUIFIER = "linux";
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("resultFileV3", ".results");
+	}
+
+	@After
+	public void tearDown() {
+		if(!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	@Test
+	public void convertedFilesParseLikeTheOriginal() throws Exception {
+		StringBuilder content = new StringBuilder("AtTask Failures v2\n");
+		content.append("added com.example.Pending.test\n");
+		content.append("started com.example.Running.test\n");
+		for (int i = 0; i < 20; i++) {
+			if(i % 4 == 0) {
+				content.append("failed com.example.Test").append(i).append(".test thread-").append(i % 3).append(' ').append(i * 7).append('\n');
+				content.append("java.lang.AssertionError: unexpected ").append(i).append('\n');
+				// Blank lines inside a trace are part of it.
+				content.append("\n\n");
+				content.append("\tat com.example.Test").append(i).append(".test(Test.java:").append(i).append(")\n");
+			} else if(i % 4 == 1) {
+				content.append("skipped com.example.Test").append(i).append(".test thread-").append(i % 3).append(" 0\n");
+			} else {
+				content.append("finished com.example.Test").append(i).append(".test thread-").append(i % 3).append(' ').append(i).append('\n');
+			}
+		}
+		content.append("failed com.example.Twice.test thread-1 3\n");
+		content.append("java.lang.AssertionError: first\n");
+		content.append("finished com.example.Twice.test thread-1 4\n");
+		content.append("failed com.example.Last.test thread-2 5\n");
+		content.append("java.lang.IllegalStateException\r\n\tat com.example.Last.test(Last.java:1)\r\n");
+		// Trailing blank lines are dropped from the last trace by both parsers.
+		content.append("\n\r\n\n");
+
+		List<TestResult> results = assertSameAfterConversion(content.toString());
+		assertEquals(24, results.size());
+		assertEquals("java.lang.IllegalStateException\n\tat com.example.Last.test(Last.java:1)\n", results.get(results.size() - 1).getInlineStackTrace());
+		assertEquals(TestStatus.FINISHED, byName(results).get("com.example.Twice.test").getStatus());
+	}
+
+	@Test
+	public void convertingOnlyAHeaderGivesNoResults() throws Exception {
+		assertEquals(0, assertSameAfterConversion("AtTask Failures v2\n\n\n").size());
+	}
+
+	@Test
+	public void aGrowingFileCanEndAnywhere() throws Exception {
+		StringBuilder longTrace = new StringBuilder("java.lang.AssertionError: long\n");
+		for (int frame = 0; frame < 200; frame++) {
+			longTrace.append("\tat com.example.Long.frame").append(frame).append("(Long.java:").append(frame).append(")\n");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ResultFileV3Writer writer = new ResultFileV3Writer(bytes);
+		writer.started("com.example.First.test");
+		writer.finished("com.example.First.test", "thread-1", 12);
+		// Long enough that its length takes more than one varint byte.
+		writer.failed("com.example.Long.test", "thread-2", 34, longTrace.toString());
+		writer.skipped("com.example.Last.test", "thread-1", 0);
+		// Not closed: a growing file has no index yet.
+		writer.flush();
+		byte[] whole = bytes.toByteArray();
+
+		List<ResultRecord> all = readAll(whole, whole.length, false);
+		assertEquals(4, all.size());
+		int longRecordStart = recordStart(whole, 4);
+		assertTrue((whole[longRecordStart] & 0x80) != 0);
+
+		for (int length = ResultFileV3.headerLength(); length <= whole.length; length++) {
+			List<ResultRecord> records = readAll(whole, length, true);
+			assertTrue(records.size() <= all.size());
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals("Record " + i + " of a file cut at " + length, all.get(i).getName(), records.get(i).getName());
+				assertEquals("Record " + i + " of a file cut at " + length, all.get(i).getStackTrace(), records.get(i).getStackTrace());
+			}
+		}
+
+		// Cut between the two bytes of the long record's length.
+		ResultFileV3Reader reader = new ResultFileV3Reader(new ByteArrayInputStream(whole, 0, longRecordStart + 1), true);
+		assertEquals(TestStatus.STARTED, reader.next().getStatus());
+		assertEquals(TestStatus.FINISHED, reader.next().getStatus());
+		assertNull(reader.next());
+		assertTrue(reader.isTruncated());
+		assertNull(reader.next());
+
+		// A file that isn't growing must not end there.
+		reader = new ResultFileV3Reader(new ByteArrayInputStream(whole, 0, longRecordStart + 1), false);
+		reader.next();
+		reader.next();
+		try {
+			reader.next();
+			fail("A finished file ended inside a record's length");
+		} catch (EOFException expected) {
+			// expected
+		}
+	}
+
+	private List<TestResult> assertSameAfterConversion(String v2) throws Exception {
+		write(v2);
+		FilePath filePath = new FilePath(file);
+		Map<TestResult, TestStatus> expected = new LinkedHashMap<TestResult, TestStatus>();
+		TestResult.parseLines(null, filePath, ResultFileReader.readLines(filePath, false), 0, null, RUN_ID, UNIQUIFIER, URL, new RecordingStats(), false, expected);
+
+		ByteArrayOutputStream v3 = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try {
+			ResultFileConverter.convert(in, v3);
+		} finally {
+			in.close();
+		}
+		Map<TestResult, TestStatus> actual = new LinkedHashMap<TestResult, TestStatus>();
+		ResultFileV3Reader reader = new ResultFileV3Reader(new ByteArrayInputStream(v3.toByteArray()), false);
+		try {
+			TestResult.parseRecords(null, reader, null, RUN_ID, UNIQUIFIER, URL, new RecordingStats(), false, actual);
+			assertFalse(reader.isTruncated());
+		} finally {
+			reader.close();
+		}
+
+		assertEquals(expected.size(), actual.size());
+		List<TestResult> results = new ArrayList<TestResult>(actual.keySet());
+		int index = 0;
+		for (TestResult expectedResult : expected.keySet()) {
+			TestResult result = results.get(index++);
+			String message = "Result " + index;
+			assertEquals(message, expectedResult.getName(), result.getName());
+			assertEquals(message, expectedResult.getStatus(), result.getStatus());
+			assertEquals(message, expectedResult.getTime(), result.getTime());
+			assertEquals(message, expectedResult.getThreadId(), result.getThreadId());
+			assertEquals(message, expectedResult.getInlineStackTrace(), result.getInlineStackTrace());
+			assertEquals(message, expectedResult.getRunId(), result.getRunId());
+			assertEquals(message, expectedResult.getUrl(), result.getUrl());
+			assertEquals(message, expectedResult.getUniquifier(), result.getUniquifier());
+		}
+		return results;
+	}
+
+	private void write(String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static List<ResultRecord> readAll(byte[] bytes, int length, boolean growing) throws IOException {
+		ResultFileV3Reader reader = new ResultFileV3Reader(new ByteArrayInputStream(bytes, 0, length), growing);
+		try {
+			List<ResultRecord> records = new ArrayList<ResultRecord>();
+			ResultRecord record;
+			while((record = reader.next()) != null) {
+				records.add(record);
+			}
+			return records;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return The offset of the length of the given record, counting thread records too: the first thread, both results of the first test, then the second thread.
+	 */
+	private static int recordStart(byte[] bytes, int record) {
+		int position = ResultFileV3.headerLength();
+		for (int i = 0; i < record; i++) {
+			long length = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = bytes[position++] & 0xFF;
+				length |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while((b & 0x80) != 0);
+			position += length;
+		}
+		return position;
+	}
+
+	private static Map<String, TestResult> byName(List<TestResult> results) {
+		Map<String, TestResult> byName = new HashMap<String, TestResult>();
+		for (TestResult result : results) {
+			byName.put(result.getName(), result);
+		}
+		return byName;
+	}
+}
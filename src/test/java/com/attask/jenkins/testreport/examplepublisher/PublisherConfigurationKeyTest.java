@@ -0,0 +1,34 @@
+package com.attask.jenkins.testreport.examplepublisher;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestStatus;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * The fragment cache is keyed on the publishers' configuration keys, so they must change with the settings and only with the settings.
+ */
+public class PublisherConfigurationKeyTest {
+	@Test
+	public void renderingHistoryDoesNotChangeTheKey() {
+		HistoryPublisher publisher = new HistoryPublisher();
+		String before = publisher.getConfigurationKey();
+
+		// What each and includeFloat leave behind after rendering a row.
+		publisher.history = Collections.singletonList(new TestResult("com.example.Test#test", 12, "thread-1", TestStatus.FAILED, "job#1", "java.lang.AssertionError\n", 0, null, "testReport", null));
+		publisher.maxTime = 12;
+		publisher.currentIndex = 0;
+
+		assertEquals(before, publisher.getConfigurationKey());
+	}
+
+	@Test
+	public void settingsChangeTheKey() {
+		assertEquals(new ScreenshotPublisher("a.*").getConfigurationKey(), new ScreenshotPublisher("a.*").getConfigurationKey());
+		assertFalse(new ScreenshotPublisher("a.*").getConfigurationKey().equals(new ScreenshotPublisher("b.*").getConfigurationKey()));
+		assertFalse(new ScreenshotPublisher("a.*").getConfigurationKey().equals(new HistoryPublisher().getConfigurationKey()));
+	}
+}
@@ -0,0 +1,316 @@
+package com.attask.jenkins.testreport.storage;
+
+import com.attask.jenkins.testreport.TestResult;
+import com.attask.jenkins.testreport.TestStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores builds the way TestResultAction does and checks that loading them gives the same results back.
+ * The only thing a delta is allowed to lose is the exact duration of a test whose duration stayed within its 5% bucket.
+ */
+public class DeltaResultStorageTest {
+	private File jobDir;
+	private File snapshotDir;
+
+	@Before
+	public void createJobDir() throws IOException {
+		jobDir = File.createTempFile("deltaResultStorage", "");
+		if(!jobDir.delete() || !jobDir.mkdirs()) {
+			throw new IOException("Couldn't create " + jobDir);
+		}
+		snapshotDir = new File(jobDir, "testReportSnapshots");
+	}
+
+	@After
+	public void deleteJobDir() {
+		delete(jobDir);
+	}
+
+	@Test
+	public void firstBuildIsItsOwnSnapshot() throws IOException {
+		List<TestResult> results = createResults(1, 100, 10);
+		store(1, results);
+
+		assertEquals(1, baseOf(1));
+		assertSameResults(results, load(1), false);
+	}
+
+	@Test
+	public void smallChangesAreStoredAgainstTheSnapshot() throws IOException {
+		store(1, createResults(1, 100, 10));
+
+		List<TestResult> results = createResults(2, 100, 10);
+		results.set(5, failure(results.get(5), "java.lang.AssertionError: expected 1\n\tat Foo.test(Foo.java:5)", 1, "job#2"));
+		results.set(6, new TestResult(results.get(6).getName(), results.get(6).getTime() * 3, "thread-2", TestStatus.FINISHED, "job#2", null, 0, null, "url", null));
+		results.remove(7);
+		results.add(new TestResult("com.example.NewTest.test", 12, "thread-1", TestStatus.FINISHED, "job#2", null, 0, null, "url", null));
+		store(2, results);
+
+		assertEquals(1, baseOf(2));
+		assertSameResults(results, load(2), true);
+		assertSameResults(createResults(1, 100, 10), load(1), false);
+	}
+
+	@Test
+	public void unchangedResultsTakeTheNewBuildsRunId() throws IOException {
+		store(1, createResults(1, 20, 0));
+		store(2, createResults(2, 20, 0));
+
+		for (TestResult result : load(2)) {
+			assertEquals("job#2", result.getRunId());
+		}
+	}
+
+	@Test
+	public void resultsFromOtherRunsKeepTheirRunId() throws IOException {
+		List<TestResult> first = createResults(1, 20, 0);
+		first.set(3, withRunId(first.get(3), "other#7"));
+		store(1, first);
+
+		List<TestResult> second = createResults(2, 20, 0);
+		second.set(3, withRunId(second.get(3), "other#7"));
+		store(2, second);
+
+		assertEquals(1, baseOf(2));
+		assertSameResults(second, load(2), true);
+	}
+
+	@Test
+	public void stackTracesAndKeysRoundTrip() throws IOException {
+		String stackTrace = "java.lang.IllegalStateException: \u00fcnicode\n\tat Foo.bar(Foo.java:1)\n\tat Foo.baz(Foo.java:2)";
+		List<TestResult> first = createResults(1, 20, 0);
+		first.set(1, failure(first.get(1), stackTrace, 1, "job#1"));
+		TestResult keyed = failure(first.get(2), null, 1, "job#1");
+		keyed.setStackTraceKey("0123456789abcdef");
+		first.set(2, keyed);
+		store(1, first);
+
+		List<TestResult> second = createResults(2, 20, 0);
+		second.set(1, failure(second.get(1), stackTrace, 2, "job#1"));
+		TestResult keyedAgain = failure(second.get(2), null, 2, "job#1");
+		keyedAgain.setStackTraceKey("0123456789abcdef");
+		second.set(2, keyedAgain);
+		store(2, second);
+
+		assertSameResults(first, load(1), false);
+		assertSameResults(second, load(2), true);
+	}
+
+	@Test
+	public void changingMoreThanHalfWritesANewSnapshot() throws IOException {
+		store(1, createResults(1, 100, 0));
+		store(2, createResults(2, 100, 0));
+
+		List<TestResult> results = createResults(3, 100, 0);
+		for (int i = 0; i < 51; i++) {
+			results.set(i, failure(results.get(i), "java.lang.AssertionError\n\tat Test" + i, 1, "job#3"));
+		}
+		store(3, results);
+
+		assertEquals(1, baseOf(2));
+		assertEquals(3, baseOf(3));
+		assertTrue(new File(snapshotDir, "3.bin.gz").isFile());
+		assertSameResults(results, load(3), false);
+
+		// The builds before keep reading the old snapshot.
+		assertSameResults(createResults(2, 100, 0), load(2), true);
+
+		// And the build after is relative to the new one.
+		store(4, results);
+		assertEquals(3, baseOf(4));
+	}
+
+	@Test
+	public void changingHalfStaysADelta() throws IOException {
+		store(1, createResults(1, 100, 0));
+
+		List<TestResult> results = createResults(2, 100, 0);
+		for (int i = 0; i < 50; i++) {
+			results.set(i, failure(results.get(i), "java.lang.AssertionError\n\tat Test" + i, 1, "job#2"));
+		}
+		store(2, results);
+
+		assertEquals(1, baseOf(2));
+		assertSameResults(results, load(2), true);
+	}
+
+	@Test
+	public void aSnapshotIsWrittenEveryIntervalBuilds() throws IOException {
+		for (int build = 1; build <= 26; build++) {
+			store(build, createResults(build, 10, 0));
+		}
+		assertEquals(1, baseOf(25));
+		assertEquals(26, baseOf(26));
+		assertSameResults(createResults(26, 10, 0), load(26), false);
+	}
+
+	@Test
+	public void durationsWithinTheirBucketAreUnchanged() throws IOException {
+		long time = 10000;
+		int bucket = ResultSetCodec.quantize(time);
+		long sameBucket = time;
+		while(ResultSetCodec.quantize(sameBucket + 1) == bucket) {
+			sameBucket++;
+		}
+		assertTrue(sameBucket > time);
+
+		store(1, Arrays.asList(new TestResult("a", time, "t", TestStatus.FINISHED, "job#1", null, 0, null, "url", null)));
+		store(2, Arrays.asList(new TestResult("a", sameBucket, "t", TestStatus.FINISHED, "job#2", null, 0, null, "url", null)));
+		store(3, Arrays.asList(new TestResult("a", sameBucket + 1, "t", TestStatus.FINISHED, "job#3", null, 0, null, "url", null)));
+
+		assertEquals(time, load(2).get(0).getTime());
+		assertEquals(sameBucket + 1, load(3).get(0).getTime());
+	}
+
+	@Test
+	public void rewritingKeepsTheBaseAndTheSnapshot() throws IOException {
+		store(1, createResults(1, 100, 10));
+		store(2, createResults(2, 100, 10));
+		File snapshot = new File(snapshotDir, "1.bin.gz");
+		long snapshotModified = snapshot.lastModified();
+		byte[] refs = readFile(new File(snapshotDir, "1.refs"));
+
+		// The ages of the snapshot build change, and so would most of a delta against anything but its own snapshot.
+		List<TestResult> enriched = new ArrayList<TestResult>();
+		for (TestResult result : createResults(1, 100, 10)) {
+			enriched.add(result.withAge(result.getAge() + 5, "job#1"));
+		}
+		DeltaResultStorage.rewrite(snapshotDir, buildDir(1), "job#1", enriched);
+
+		assertEquals(1, baseOf(1));
+		assertEquals(snapshotModified, snapshot.lastModified());
+		assertArrayEquals(refs, readFile(new File(snapshotDir, "1.refs")));
+		assertEquals(new TreeSet<String>(Arrays.asList("1.bin.gz", "1.refs")), new TreeSet<String>(Arrays.asList(snapshotDir.list())));
+		assertSameResults(enriched, load(1), false);
+		assertSameResults(createResults(2, 100, 10), load(2), true);
+	}
+
+	@Test
+	public void rewritingADeltaBuildKeepsItsBase() throws IOException {
+		store(1, createResults(1, 100, 10));
+		store(2, createResults(2, 100, 10));
+
+		List<TestResult> enriched = new ArrayList<TestResult>();
+		for (TestResult result : createResults(2, 100, 1)) {
+			enriched.add(result.withAge(7, "job#1"));
+		}
+		DeltaResultStorage.rewrite(snapshotDir, buildDir(2), "job#2", enriched);
+
+		assertEquals(1, baseOf(2));
+		assertFalse(new File(snapshotDir, "2.bin.gz").exists());
+		assertSameResults(enriched, load(2), true);
+		assertSameResults(createResults(1, 100, 10), load(1), false);
+	}
+
+	private void store(int buildNumber, Collection<TestResult> results) throws IOException {
+		File buildDir = buildDir(buildNumber);
+		if(!buildDir.isDirectory() && !buildDir.mkdirs()) {
+			throw new IOException("Couldn't create " + buildDir);
+		}
+		DeltaResultStorage.store(snapshotDir, buildDir, buildNumber, "job#" + buildNumber, results);
+	}
+
+	private List<TestResult> load(int buildNumber) throws IOException {
+		return DeltaResultStorage.load(snapshotDir, buildDir(buildNumber));
+	}
+
+	private int baseOf(int buildNumber) throws IOException {
+		return DeltaResultStorage.readBaseNumber(new File(buildDir(buildNumber), DeltaResultStorage.DELTA_FILE));
+	}
+
+	private File buildDir(int buildNumber) {
+		return new File(jobDir, "builds/" + buildNumber);
+	}
+
+	/**
+	 * @param failing One in every this many tests failed, or 0 for none.
+	 */
+	private static List<TestResult> createResults(int buildNumber, int count, int failing) {
+		List<TestResult> results = new ArrayList<TestResult>(count);
+		for (int i = 0; i < count; i++) {
+			String name = "com.example.Test" + (i / 10) + ".test" + i;
+			boolean failed = failing > 0 && i % failing == 0;
+			String stackTrace = failed ? "java.lang.AssertionError: test" + i + "\n\tat com.example.Test" + (i / 10) + ".test" + i + "(Test.java:" + i + ")" : null;
+			TestResult result = new TestResult(name, 100 + i * 37, "thread-" + (i % 4), failed ? TestStatus.FAILED : TestStatus.FINISHED, "job#" + buildNumber,
+					stackTrace, failed ? buildNumber : 0, failed ? "job#1" : null, "http://example.com/tests/", i % 3 == 0 ? "linux" : null);
+			if(failed) {
+				result.setStyle("background-color: #ffcccc;");
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	private static TestResult failure(TestResult result, String stackTrace, int age, String firstFailingBuildId) {
+		return new TestResult(result.getName(), result.getTime(), result.getThreadId(), TestStatus.FAILED, result.getRunId(), stackTrace, age, firstFailingBuildId, result.getUrl(), result.getUniquifier());
+	}
+
+	private static TestResult withRunId(TestResult result, String runId) {
+		return new TestResult(result.getName(), result.getTime(), result.getThreadId(), result.getStatus(), runId, result.getInlineStackTrace(), result.getAge(), result.getFirstFailingBuildId(), result.getUrl(), result.getUniquifier());
+	}
+
+	/**
+	 * @param delta Whether the results were read from a delta, so an unchanged duration may come back as the snapshot's duration.
+	 */
+	private static void assertSameResults(Collection<TestResult> expected, Collection<TestResult> actual, boolean delta) {
+		Map<String, TestResult> actualByName = new HashMap<String, TestResult>();
+		for (TestResult result : actual) {
+			assertNull("Duplicate result " + result.getName(), actualByName.put(result.getName(), result));
+		}
+		assertEquals(expected.size(), actualByName.size());
+		for (TestResult expectedResult : expected) {
+			TestResult result = actualByName.get(expectedResult.getName());
+			String name = expectedResult.getName();
+			assertNotNull("Missing " + name, result);
+			assertEquals(name, expectedResult.getStatus(), result.getStatus());
+			assertEquals(name, expectedResult.getThreadId(), result.getThreadId());
+			assertEquals(name, expectedResult.getRunId(), result.getRunId());
+			assertEquals(name, expectedResult.getInlineStackTrace(), result.getInlineStackTrace());
+			assertEquals(name, expectedResult.getStackTraceKey(), result.getStackTraceKey());
+			assertEquals(name, expectedResult.getAge(), result.getAge());
+			assertEquals(name, expectedResult.getFirstFailingBuildId(), result.getFirstFailingBuildId());
+			assertEquals(name, expectedResult.getUrl(), result.getUrl());
+			assertEquals(name, expectedResult.getUniquifier(), result.getUniquifier());
+			assertEquals(name, expectedResult.getStyle(), result.getStyle());
+			if(delta) {
+				assertEquals(name, ResultSetCodec.quantize(expectedResult.getTime()), ResultSetCodec.quantize(result.getTime()));
+			} else {
+				assertEquals(name, expectedResult.getTime(), result.getTime());
+			}
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		if(!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}